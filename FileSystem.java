@@ -1,4 +1,4 @@
-public class FileSystem {
+public class FileSystem implements FileSystemMBean {
 
     private Superblock superblock;
     private Directory directory;
@@ -11,10 +11,23 @@ public class FileSystem {
     public final static int SUCCESS = 0;
     public final static int ERROR = -1;
 
+    // statistics, exposed through FileSystemMBean
+    private volatile long opens = 0;
+    private volatile long reads = 0;
+    private volatile long writes = 0;
+    private volatile long bytesRead = 0;
+    private volatile long bytesWritten = 0;
+
     //constructor
     public FileSystem(int diskBlocks) {
+        this(diskBlocks, BootConfig.DEFAULT_INODES);
+    }
+
+    //constructor; a disk that has to be formatted gets the given number
+    //of inodes
+    public FileSystem(int diskBlocks, int files) {
 
-        superblock = new Superblock(diskBlocks);
+        superblock = new Superblock(diskBlocks, files);
 
 
         directory = new Directory(superblock.getTotalINodes());
@@ -32,6 +45,34 @@ public class FileSystem {
         close(entry);
     }
 
+    //constructor; restores the superblock and the directory kept in a
+    //checkpoint instead of reading them from the disk
+    public FileSystem(Checkpoint c) {
+        superblock = new Superblock(c);
+        directory = new Directory(superblock.getTotalINodes());
+        directory.bytes2directory(c.directory);
+        filetable = new FileTable(directory);
+    }
+
+    //Lets threads waiting for a busy file leave the run queue
+    public void setScheduler(Scheduler scheduler) {
+        filetable.setScheduler(scheduler);
+    }
+
+    //Records the superblock and the directory in a checkpoint, then runs
+    //devices to record the cache and the disk while no file can be opened.
+    //Fails if a file is open, since open files cannot be restored.
+    public synchronized boolean checkpoint(Checkpoint c, Runnable devices) {
+        synchronized (filetable) {
+            if (!filetable.fempty())
+                return false;
+            superblock.checkpoint(c);
+            c.directory = directory.directory2bytes();
+            devices.run();
+        }
+        return true;
+    }
+
     //Formats the disk (Disk.java's data contents). The parameter
     //files specifies the maximum number of files to be created (the
     //number of inodes to be allocated) in your file system. The
@@ -60,11 +101,26 @@ public class FileSystem {
      * given fileName and mode otherwise.
      */
     public FileTableEntry open(String fileName, String mode) {
+        return open(fileName, mode, null);
+    }
+
+    /**
+     * Opens a file on behalf of a thread. While the thread holds the file,
+     * threads waiting to open it lend it their I/O priority.
+     *
+     * @param fileName of the file we want to open
+     * @param mode     that we want to open the file in
+     * @param owner    the TCB of the opening thread, or null
+     * @return null if the mode was invalid, new {@link FileTableEntry} with the
+     * given fileName and mode otherwise.
+     */
+    public FileTableEntry open(String fileName, String mode, TCB owner) {
         // create a new entry
-        FileTableEntry entry = filetable.falloc(fileName, mode);
+        FileTableEntry entry = filetable.falloc(fileName, mode, owner);
 
         // we were able to make a new entry
         if (entry != null) {
+            opens++;
             switch (entry.mode) {
                 case Mode.APPEND:
                     entry.seekPtr = this.fileSize(entry);
@@ -128,6 +184,9 @@ public class FileSystem {
                 entry.seekPtr += smallestLeft;
                 buffSize -= smallestLeft;
             }
+            reads++;
+            bytesRead += bRead;
+
             //return the number of bytes that have been read
             return bID;
         }
@@ -208,6 +267,9 @@ public class FileSystem {
 
         entry.inode.toDisk(entry.iNumber);  // write back to disk
 
+        writes++;
+        bytesWritten += writtenBytes;
+
         return writtenBytes; // return number of bytes that have been written
     }
 
@@ -346,6 +408,37 @@ public class FileSystem {
     }
 
 
+    public long getOpens() {
+        return opens;
+    }
+
+    public long getReads() {
+        return reads;
+    }
+
+    public long getWrites() {
+        return writes;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    //Returns the number of entries in the file table.
+    public int getOpenFiles() {
+        return filetable.table.size();
+    }
+
+    //Returns the number of blocks on the free list, or -1: the superblock
+    //keeps the head of the list but no count of its blocks.
+    public int getFreeBlocks() {
+        return -1;
+    }
+
     //Returns the size in bytes of the file indicated by fd.
     public int fileSize(FileTableEntry entry) {
         if (entry == null) {
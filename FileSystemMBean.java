@@ -0,0 +1,10 @@
+// The FileSystem as seen through JMX (ThreadOS:type=FileSystem)
+public interface FileSystemMBean {
+    public long getOpens();
+    public long getReads();
+    public long getWrites();
+    public long getBytesRead();
+    public long getBytesWritten();
+    public int getOpenFiles();
+    public int getFreeBlocks();
+}
@@ -3,6 +3,9 @@
 
  */
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Vector;
 
 public class FileTable {
@@ -10,15 +13,36 @@ public class FileTable {
     public Vector<FileTableEntry> table;        // the actual entity of this file table
     private Directory dir;                      // the root directory
 
+    // threads holding each inode open, and threads waiting in falloc for it.
+    // A waiter lends its CPU and I/O priority to the holders until they
+    // close the file, so that a low priority holder does not keep it
+    // waiting behind everybody else's quanta and disk requests.
+    private HashMap<Short, LinkedList<TCB>> holders = new HashMap<Short, LinkedList<TCB>>();
+    private HashMap<Short, LinkedList<TCB>> waiters = new HashMap<Short, LinkedList<TCB>>();
+    private HashMap<TCB, Short> waitingFor = new HashMap<TCB, Short>();
+    private Scheduler scheduler = null;         // blocks waiters, lends priority
+
 
     public FileTable(Directory directory) { // constructor
         table = new Vector();     // instantiate a file (structure) table
         dir = directory;           // receive a reference to the Director
     }                             // from the file system
 
+    public synchronized void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+        if (scheduler != null)
+            scheduler.setFileTable(this);
+    }
+
     // major public methods
     // allocate a new file (structure) table entry for this file name
     public synchronized FileTableEntry falloc(String filename, String mode) {
+        return falloc(filename, mode, null);
+    }
+
+    // allocate an entry on behalf of a thread, which holds the inode until
+    // the entry is freed
+    public synchronized FileTableEntry falloc(String filename, String mode, TCB owner) {
         Inode node = null;
         //nodeNum has to be a short because of Inode
         short nodeNum = -1;
@@ -41,10 +65,7 @@ public class FileTable {
                 node = new Inode(nodeNum);
                 if (mode.equals(Mode.READ_ONLY)) {
                     if (node.flag == 3) {
-                        try {
-                            wait();
-                        } catch (InterruptedException e) {
-                        }
+                        waitFor(nodeNum, owner);
                         break;
                     } else if (node.flag == 4) {
                         nodeNum = -1;
@@ -60,10 +81,7 @@ public class FileTable {
 
                         //if the node is busy, wait
                     else if (node.flag == 2 || node.flag == 3) {
-                        try {
-                            wait();
-                        } catch (InterruptedException e) {
-                        }
+                        waitFor(nodeNum, owner);
                         break;
                     } else if (node.flag == 4) {
                         nodeNum = -1;
@@ -84,13 +102,134 @@ public class FileTable {
         // return a reference to this file (structure) table entry
         FileTableEntry retVal = new FileTableEntry(node, nodeNum, mode);
         table.addElement(retVal);
+        if (owner != null) {
+            retVal.owner = owner;
+            listOf(holders, nodeNum).add(owner);
+        }
         return retVal;
     }
 
+    // the list kept for an inode in holders or waiters
+    private LinkedList<TCB> listOf(HashMap<Short, LinkedList<TCB>> map, short iNumber) {
+        LinkedList<TCB> list = map.get(iNumber);
+        if (list == null) {
+            list = new LinkedList<TCB>();
+            map.put(iNumber, list);
+        }
+        return list;
+    }
+
+    // wait on the table monitor for a busy inode, off the run queue and
+    // lending my priority to whoever holds it meanwhile
+    private void waitFor(short iNumber, TCB waiter) {
+        if (waiter != null) {
+            listOf(waiters, iNumber).add(waiter);
+            waitingFor.put(waiter, iNumber);
+            lend(iNumber, waiter, holders.size());
+            if (scheduler != null)
+                scheduler.blockThread(waiter);
+        }
+        try {
+            wait();
+        } catch (InterruptedException e) {
+        }
+        if (waiter != null) {
+            if (scheduler != null)
+                scheduler.wakeThread(waiter);
+            waitingFor.remove(waiter);
+            LinkedList<TCB> list = waiters.get(iNumber);
+            list.remove(waiter);
+            if (list.isEmpty())
+                waiters.remove(iNumber);
+        }
+    }
+
+    // raise the holders of an inode to a waiter's priority, and whoever
+    // holds the inodes they are waiting for in turn, up to depth hops
+    private void lend(short iNumber, TCB waiter, int depth) {
+        LinkedList<TCB> list = holders.get(iNumber);
+        if (list == null || depth < 0)
+            return;
+        for (TCB holder : list) {
+            Short next = waitingFor.get(holder);
+            if (lendTo(holder, waiter) && next != null)
+                lend(next, waiter, depth - 1);
+        }
+    }
+
+    // the scheduler re-ranks the holder on its CPU and in the disk queue;
+    // without one only the I/O priority of its next request goes up
+    private boolean lendTo(TCB holder, TCB waiter) {
+        if (scheduler != null)
+            return scheduler.lendPriority(holder, waiter);
+        return holder.lendIoPriority(waiter.getIoClass(), waiter.getIoLevel());
+    }
+
+    // a holder gives back what it was lent for an inode it no longer holds,
+    // keeping what the waiters for the other inodes it holds lend it
+    private void release(short iNumber, TCB holder) {
+        LinkedList<TCB> list = holders.get(iNumber);
+        if (list == null || !list.remove(holder))
+            return;
+        if (list.isEmpty())
+            holders.remove(iNumber);
+        if (scheduler != null)
+            scheduler.returnPriority(holder);
+        else
+            holder.returnIoPriority();
+        for (Short held : holders.keySet()) {
+            if (!holders.get(held).contains(holder) || !waiters.containsKey(held))
+                continue;
+            for (TCB waiter : waiters.get(held))
+                lendTo(holder, waiter);
+        }
+    }
+
+    // a thread exiting without closing its files holds them no more: it
+    // gives back what it was lent, and the waiters for the inodes it held
+    // lend to the holders that remain
+    public synchronized void threadExited(TCB tcb) {
+        for (FileTableEntry e : table)
+            if (e.owner == tcb)
+                e.owner = null;
+        Short waited = waitingFor.remove(tcb);
+        if (waited != null) {
+            LinkedList<TCB> list = waiters.get(waited);
+            list.remove(tcb);
+            if (list.isEmpty())
+                waiters.remove(waited);
+        }
+        ArrayList<Short> held = new ArrayList<Short>();
+        for (Short iNumber : holders.keySet())
+            if (holders.get(iNumber).contains(tcb))
+                held.add(iNumber);
+        if (held.isEmpty())
+            return;
+        for (Short iNumber : held) {
+            LinkedList<TCB> list = holders.get(iNumber);
+            while (list.remove(tcb))
+                ;
+            if (list.isEmpty())
+                holders.remove(iNumber);
+        }
+        if (scheduler != null)
+            scheduler.returnPriority(tcb);
+        else
+            tcb.returnIoPriority();
+        for (Short iNumber : held) {
+            if (!waiters.containsKey(iNumber))
+                continue;
+            for (TCB waiter : waiters.get(iNumber))
+                lend(iNumber, waiter, holders.size());
+        }
+    }
+
     public synchronized boolean ffree(FileTableEntry e) {
         // receive a file table entry reference
         Inode node = new Inode(e.iNumber);
         if (table.remove(e)) {
+            if (e.owner != null)
+                release(e.iNumber, e.owner);
             // return true if this file table entry found in my table
             if (node.flag == 2) {
                 if (node.count == 1)
@@ -1,6 +1,9 @@
 import java.util.*;
 import java.lang.reflect.*;
 import java.io.*;
+import java.util.concurrent.atomic.*;
+import java.lang.management.*;
+import javax.management.*;
 
 public class Kernel
 {
@@ -11,7 +14,8 @@ public class Kernel
 
     // System calls
     public final static int BOOT    =  0; // SysLib.boot( )
-    public final static int EXEC    =  1; // SysLib.exec(String args[])
+    public final static int EXEC    =  1; // SysLib.exec(String args[],
+                                          //             int tickets)
     public final static int WAIT    =  2; // SysLib.join( )
     public final static int EXIT    =  3; // SysLib.exit( )
     public final static int SLEEP   =  4; // SysLib.sleep(int milliseconds)
@@ -36,6 +40,29 @@ public class Kernel
     public final static int FORMAT  = 18; // SysLib.format( int files )
     public final static int DELETE  = 19; // SysLib.delete( String fileName )
 
+    // System calls added for scheduling and monitoring
+    public final static int WAITPID = 20; // SysLib.waitpid( int tid ) and
+                                          // SysLib.waitpid( int tids[] )
+    public final static int IONICE  = 21; // SysLib.ionice( int ioClass,
+                                          //               int level )
+    public final static int IOLIMIT = 22; // SysLib.iolimit( int scope,
+                                          //   int iops, int bytesPerSecond )
+
+    public final static int STATS   = 23; // SysLib.stats( KernelStats s )
+    public final static int PROFILE = 24; // SysLib.profile( String fileName )
+    public final static int CHECKPOINT = 25; // SysLib.checkpoint( String
+                                             //               fileName )
+    public final static int YIELD   = 26; // SysLib.yield( )
+    public final static int METRICS = 27; // SysLib.metrics( int tid,
+                                          //   ThreadMetrics m )
+    public final static int REALTIME = 28; // SysLib.realtime( int period,
+                                           //   int budget, int deadline )
+    public final static int NEXTPERIOD = 29; // SysLib.nextPeriod( )
+
+    // Scopes of SysLib.iolimit( )
+    public final static int IOLIMIT_THREAD = 0; // the calling thread
+    public final static int IOLIMIT_GROUP  = 1; // the caller's thread group
+
     // Predefined file descriptors
     public final static int STDIN  = 0;
     public final static int STDOUT = 1;
@@ -59,94 +86,190 @@ public class Kernel
     private static Scheduler scheduler;
     private static Disk disk;
     private static Cache cache;
+    private static TimerWheel timerWheel; // wakes up sleeping threads
+    private static Profiler profiler;     // samples user threads, or null
+    private static AdmissionControl admission; // limits threads on EXEC
 
     // Synchronized Queues
     private static SyncQueue waitQueue;  // for threads to wait for their child
     private static SyncQueue ioQueue;    // I/O queue
+    private static DiskQueue diskQueue;  // disk requests by I/O class
 
     private final static int COND_DISK_REQ = 1; // wait condition
     private final static int COND_DISK_FIN = 2; // wait condition
 
+    private final static int TIMER_TICK = 10;   // SLEEP resolution in ms
+
+    // Time spent in the last BOOT, in nanoseconds, and when it started
+    private static long bootTime = 0;
+    private static long bootStamp = 0;
+
+    // Number of calls to each system call
+    private final static int SYSCALLS = 32;
+    private static AtomicLongArray syscalls = new AtomicLongArray( SYSCALLS );
+
+    // Group commit for SYNC. A flush covers every write accepted by the
+    // disk before it started, so callers arriving while a flush is in
+    // progress all wait for the next one instead of each issuing their own.
+    private static Object syncLock = new Object( );
+    private static boolean syncing = false; // a flush is in progress
+    private static long syncStarted = 0;    // generation of the last flush started
+    private static long syncFinished = 0;   // generation of the last flush finished
+    private static long syncRequests = 0;   // # SYNC calls, flushes = syncStarted
+
     // Standard input
     private static BufferedReader input
             = new BufferedReader( new InputStreamReader( System.in ) );
 
-    // The heart of Kernel
+    // The entry to the Kernel. The outermost entry and exit of a user
+    // thread's system call are safepoints: if its CPU has revoked its run
+    // permit, the thread waits there until it is dispatched again.
     public static int interrupt( int irq, int cmd, int param, Object args ) {
+        TCB myTcb = ( irq == INTERRUPT_SOFTWARE && scheduler != null ) ?
+            scheduler.getMyTcb( ) : null;
+        if ( myTcb == null )
+            return serve( irq, cmd, param, args );
+        if ( myTcb.enterKernel( ) )
+            myTcb.safepoint( );
+        try {
+            return serve( irq, cmd, param, args );
+        } finally {
+            if ( myTcb.exitKernel( ) )
+                myTcb.safepoint( );
+        }
+    }
+
+    // The heart of Kernel
+    private static int serve( int irq, int cmd, int param, Object args ) {
         TCB myTcb;
         switch( irq ) {
             case INTERRUPT_SOFTWARE: // System calls
+                if ( cmd >= 0 && cmd < SYSCALLS )
+                    syscalls.incrementAndGet( cmd );
                 switch( cmd ) {
                     case BOOT:
-                        // instantiate and start a scheduler
-                        scheduler = new Scheduler( );
-                        scheduler.start( );
-
-                        // instantiate and start a disk
-                        disk = new Disk( 1000 );
-                        disk.start( );
-
-                        // instantiate a cache memory
-                        cache = new Cache( disk.blockSize, 10 );
-
-                        // instantiate synchronized queues
-                        ioQueue = new SyncQueue( );
-                        waitQueue = new SyncQueue( scheduler.getMaxThreads( ) );
-
-                        fileSystem = new FileSystem(1000);
-                        return OK;
+                        return sysBoot( ( BootConfig )args );
                     case EXEC:
-                        return sysExec( ( String[] )args );
+                        return sysExec( ( String[] )args, param );
                     case WAIT:
                         if ( ( myTcb = scheduler.getMyTcb( ) ) != null ) {
                             int myTid = myTcb.getTid( ); // get my thread ID
-                            return waitQueue.enqueueAndSleep( myTid ); //wait on my tid
-                            // woken up by my child thread
+                            // off the run queue until woken up by my child
+                            scheduler.blockThread( myTcb );
+                            int child = waitQueue.enqueueAndSleep( myTid ); //wait on my tid
+                            scheduler.wakeThread( myTcb );
+                            return child;
+                        }
+                        return ERROR;
+                    case IONICE:  // set my disk I/O class and level
+                        if ( ( myTcb = scheduler.getMyTcb( ) ) != null ) {
+                            int prio[] = ( int[] )args;
+                            return myTcb.setIoPriority( prio[0], prio[1] ) ? OK : ERROR;
+                        }
+                        return ERROR;
+                    case IOLIMIT: // limit disk bandwidth of me or my group
+                        if ( ( myTcb = scheduler.getMyTcb( ) ) != null ) {
+                            int limit[] = ( int[] )args;
+                            return setIoLimits( myTcb, limit[0], limit[1], limit[2] );
+                        }
+                        return ERROR;
+                    case STATS:   // take a snapshot of kernel counters
+                        return sysStats( ( KernelStats )args );
+                    case YIELD:   // a safepoint and nothing else
+                        return OK;
+                    case REALTIME: // reserve the CPU, or not with all 0
+                        if ( ( myTcb = scheduler.getMyTcb( ) ) != null ) {
+                            int rt[] = ( int[] )args;
+                            if ( rt[0] == 0 && rt[1] == 0 && rt[2] == 0 ) {
+                                scheduler.unreserve( myTcb );
+                                return OK;
+                            }
+                            return scheduler.reserve( myTcb, rt[0], rt[1], rt[2] ) ?
+                                OK : ERROR;
+                        }
+                        return ERROR;
+                    case NEXTPERIOD: // my job is done; wait for the next
+                        if ( ( myTcb = scheduler.getMyTcb( ) ) != null ) {
+                            long wait = scheduler.completeJob( myTcb );
+                            if ( wait < 0 )
+                                return ERROR;
+                            if ( wait > 0 )
+                                parkThread( myTcb, ( int )wait );
+                            return OK;
                         }
                         return ERROR;
+                    case METRICS: // where a thread's time went, -1 for mine
+                        myTcb = ( param < 0 ) ? scheduler.getMyTcb( )
+                                              : scheduler.getTcb( param );
+                        if ( myTcb == null )
+                            return ERROR;
+                        myTcb.getMetrics( ( ThreadMetrics )args );
+                        return OK;
+                    case CHECKPOINT: // snapshot the kernel for -restore
+                        return sysCheckpoint( ( String )args );
+                    case PROFILE: // dump the profiler's collapsed stacks
+                        return sysProfile( ( String )args );
+                    case WAITPID:
+                        return sysWaitpid( ( int[] )args );
                     case EXIT:
                         if ( ( myTcb = scheduler.getMyTcb( ) ) != null ) {
                             int myPid = myTcb.getPid( ); // get my parent ID
                             int myTid = myTcb.getTid( ); // get my ID
+                            if ( myTcb.getThrottledTime( ) > 0 )
+                                System.err.println( "threadOS: tid=" + myTid +
+                                    " throttled for " +
+                                    myTcb.getThrottledTime( ) / 1000000 + " ms" );
+                            // A top-level thread such as the Loader cannot
+                            // exit: it stays in the scheduler and so keeps
+                            // the admission slot its own exec took.
                             if ( myPid != -1 ) {
                                 // wake up a thread waiting on my parent ID
                                 waitQueue.dequeueAndWakeup( myPid, myTid );
                                 // I'm terminated!
                                 scheduler.deleteThread( );
+                                admission.release( );
+                                ThreadLog.exited( myTcb );
                                 return OK;
                             }
                         }
                         return ERROR;
                     case SLEEP:   // sleep a given period of milliseconds
-                        scheduler.sleepThread( param ); // param = milliseconds
+                        if ( ( myTcb = scheduler.getMyTcb( ) ) != null && param > 0 )
+                            parkThread( myTcb, param ); // param = milliseconds
+                        else
+                            scheduler.sleepThread( param ); // not a user thread
                         return OK;
                     case RAWREAD: // read a block of data from disk
+                        throttleDisk( );
+                        acquireDisk( );
                         while ( disk.read( param, ( byte[] )args ) == false )
                             ioQueue.enqueueAndSleep( COND_DISK_REQ );
                         while ( disk.testAndResetReady( ) == false )
                             ioQueue.enqueueAndSleep( COND_DISK_FIN );
                         // wake up the thread waiting for a request acceptance
                         ioQueue.dequeueAndWakeup( COND_DISK_REQ );
+                        releaseDisk( );
                         return OK;
                     case RAWWRITE: // write a block of data to disk
+                        throttleDisk( );
+                        acquireDisk( );
                         while ( disk.write( param, ( byte[] )args ) == false )
                             ioQueue.enqueueAndSleep( COND_DISK_REQ );
                         while ( disk.testAndResetReady( ) == false )
                             ioQueue.enqueueAndSleep( COND_DISK_FIN );
                         // wake up the thread waiting for a request acceptance
                         ioQueue.dequeueAndWakeup( COND_DISK_REQ );
+                        releaseDisk( );
                         return OK;
                     case SYNC:     // synchronize disk data to a real file
-                        while ( disk.sync( ) == false )
-                            ioQueue.enqueueAndSleep( COND_DISK_REQ );
-                        while ( disk.testAndResetReady( ) == false )
-                            ioQueue.enqueueAndSleep( COND_DISK_FIN );
-                        // wake up the thread waiting for a request acceptance
-                        ioQueue.dequeueAndWakeup( COND_DISK_REQ );
-                        return OK;
+                        return sysSync( );
                     case READ:
                         switch ( param ) {
                             case STDIN:
+                                // off the run queue while waiting for the keyboard
+                                myTcb = scheduler.getMyTcb( );
+                                if ( myTcb != null )
+                                    scheduler.blockThread( myTcb );
                                 try {
                                     String s = input.readLine(); // read a keyboard input
                                     if ( s == null ) {
@@ -163,6 +286,9 @@ public class Kernel
                                 } catch ( IOException e ) {
                                     System.out.println( e );
                                     return ERROR;
+                                } finally {
+                                    if ( myTcb != null )
+                                        scheduler.wakeThread( myTcb );
                                 }
                             case STDOUT:
                             case STDERR:
@@ -210,7 +336,7 @@ public class Kernel
                         FileTableEntry entry = null;
                         if (myTcb != null) {
                             String fileInfo[] = (String[]) args;
-                            entry = fileSystem.open(fileInfo[0], fileInfo[1]);
+                            entry = fileSystem.open(fileInfo[0], fileInfo[1], myTcb);
 
                             return myTcb.getFd(entry);
                         }
@@ -255,8 +381,391 @@ public class Kernel
         return OK;
     }
 
-    // Spawning a new thread
-    private static int sysExec( String args[] ) {
+    // Publishing the subsystems as platform MBeans under the ThreadOS
+    // domain, replacing those of an earlier BOOT in this JVM. JMX is for
+    // monitoring only, so failing to register does not fail the BOOT.
+    private static void registerMBeans( ) {
+        Object beans[] = { scheduler, disk, cache, fileSystem };
+        String types[] = { "Scheduler", "Disk", "Cache", "FileSystem" };
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer( );
+        for ( int i = 0; i < beans.length; i++ ) {
+            try {
+                ObjectName name = new ObjectName( "ThreadOS:type=" + types[i] );
+                if ( server.isRegistered( name ) )
+                    server.unregisterMBean( name );
+                server.registerMBean( beans[i], name );
+            } catch ( JMException e ) {
+                System.err.println( "threadOS: cannot register " + types[i] +
+                                    " MBean: " + e );
+            }
+        }
+    }
+
+    // Taking a snapshot of the file system, the cache and the disk that a
+    // later BOOT can restore. Locks are taken in the order file system,
+    // cache, disk queue, the same order in which file operations take
+    // them, and released before the snapshot is written out.
+    private static int sysCheckpoint( String fileName ) {
+        if ( fileName == null )
+            return ERROR;
+        final Checkpoint c = new Checkpoint( );
+        boolean quiet = fileSystem.checkpoint( c, new Runnable( ) {
+            public void run( ) {
+                synchronized ( cache ) {
+                    acquireDisk( );
+                    cache.checkpoint( c );
+                    c.disk = disk.getImage( );
+                    c.diskBlocks = disk.getDiskSize( );
+                    releaseDisk( );
+                }
+            }
+        } );
+        if ( !quiet ) {
+            System.err.println( "threadOS: cannot checkpoint with files open" );
+            return ERROR;
+        }
+        try {
+            c.save( fileName );
+        } catch ( IOException e ) {
+            System.err.println( "threadOS: cannot write " + fileName + ": " + e );
+            return ERROR;
+        }
+        return OK;
+    }
+
+    // Writing the stacks sampled so far to a file in collapsed format and
+    // starting over. Returns the number of distinct stacks written.
+    private static int sysProfile( String fileName ) {
+        if ( profiler == null || fileName == null )
+            return ERROR;
+        try {
+            return profiler.dumpAndReset( fileName );
+        } catch ( IOException e ) {
+            System.err.println( "threadOS: cannot write " + fileName + ": " + e );
+            return ERROR;
+        }
+    }
+
+    // Filling a KernelStats from the counters each subsystem maintains.
+    // Subsystems are visited one after another and no lock is held across
+    // two of them, so polling this does not stall the workload.
+    private static int sysStats( KernelStats stats ) {
+        if ( stats == null )
+            return ERROR;
+        stats.uptime = System.currentTimeMillis( ) - bootStamp;
+        stats.bootTime = bootTime / 1000000;
+
+        stats.policy = scheduler.getPolicy( );
+        stats.runQueueLength = scheduler.getQueueSize( );
+        stats.threads = scheduler.getThreadStats( );
+        stats.sleeping = timerWheel.getPending( );
+        stats.contextSwitches = scheduler.getContextSwitches( );
+        stats.overruns = scheduler.getOverruns( );
+        stats.latency = scheduler.getLatency( );
+        stats.lastQuantum = scheduler.getLastQuantum( );
+        stats.averageQuantum = scheduler.getAverageQuantum( );
+        stats.threadGroups = scheduler.getThreadGroups( );
+        stats.groupMembers = scheduler.getGroupMembers( );
+
+        stats.admitted = admission.getAdmitted( );
+        stats.execPending = admission.getPending( );
+        stats.execWaits = admission.getWaits( );
+        stats.execWaitTime = admission.getWaitTime( );
+        stats.execRejected = admission.getRejected( );
+
+        stats.openFiles = fileSystem.getOpenFiles( );
+        stats.freeBlocks = fileSystem.getFreeBlocks( );
+
+        stats.cacheHits = cache.getHits( );
+        stats.cacheMisses = cache.getMisses( );
+
+        stats.diskQueueDepth = diskQueue.getDepth( );
+        synchronized ( syncLock ) {
+            stats.syncRequests = syncRequests;
+            stats.syncFlushes = syncStarted;
+        }
+
+        stats.syscalls = new long[SYSCALLS];
+        for ( int i = 0; i < SYSCALLS; i++ )
+            stats.syscalls[i] = syscalls.get( i );
+        return OK;
+    }
+
+    // Parking a thread off the run queue for the given milliseconds
+    private static void parkThread( TCB tcb, int milliseconds ) {
+        scheduler.blockThread( tcb );
+        timerWheel.add( tcb, milliseconds );
+        tcb.waitReady( );
+    }
+
+    // Setting the disk bandwidth limits of a thread or of its group
+    private static int setIoLimits( TCB tcb, int scope, int iops,
+                                    int bytesPerSecond ) {
+        if ( iops < 0 || bytesPerSecond < 0 )
+            return ERROR;
+        switch ( scope ) {
+            case IOLIMIT_THREAD:
+                tcb.setIoLimits( iops, bytesPerSecond );
+                return OK;
+            case IOLIMIT_GROUP:
+                // shared by the group's TCBs, see TCB.getGroupIoLimits( )
+                IoThrottle group[] = tcb.getGroupIoLimits( );
+                synchronized ( group ) {
+                    group[0] = ( iops > 0 ) ? new IoThrottle( iops ) : null;
+                    group[1] = ( bytesPerSecond > 0 ) ?
+                        new IoThrottle( bytesPerSecond ) : null;
+                }
+                return OK;
+        }
+        return ERROR;
+    }
+
+    // Holding the calling thread back until one more block transfer fits
+    // in its own and its group's bandwidth limits. The time it waits is
+    // charged to its TCB.
+    private static void throttleDisk( ) {
+        TCB myTcb = scheduler.getMyTcb( );
+        if ( myTcb == null )
+            return;
+        IoThrottle group[] = myTcb.getGroupIoLimits( );
+        IoThrottle limits[];
+        synchronized ( group ) {
+            limits = new IoThrottle[] {
+                myTcb.getIopsLimit( ), myTcb.getBpsLimit( ), group[0], group[1]
+            };
+        }
+        long delay = 0;
+        for ( int i = 0; i < limits.length; i++ ) {
+            if ( limits[i] != null ) {
+                long amount = ( i % 2 == 0 ) ? 1 : Disk.blockSize;
+                delay = Math.max( delay, limits[i].reserve( amount ) );
+            }
+        }
+        if ( delay <= 0 )
+            return;
+        long start = System.nanoTime( );
+        parkThread( myTcb, ( int )( ( delay + 999999 ) / 1000000 ) );
+        myTcb.addThrottledTime( System.nanoTime( ) - start );
+    }
+
+    // Waiting for the calling thread's turn on the disk, in the order of
+    // its I/O class. Threads without a TCB are best effort. The thread
+    // leaves the run queue until releaseDisk( ), so that the CPU goes to
+    // others while it waits for the disk.
+    private static void acquireDisk( ) {
+        TCB myTcb = scheduler.getMyTcb( );
+        if ( myTcb != null ) {
+            scheduler.blockThread( myTcb );
+            diskQueue.acquire( myTcb );
+        } else
+            diskQueue.acquire( DiskQueue.CLASS_BEST_EFFORT,
+                               DiskQueue.DEFAULT_LEVEL );
+    }
+
+    // Giving up the disk and returning to the run queue
+    private static void releaseDisk( ) {
+        diskQueue.release( );
+        TCB myTcb = scheduler.getMyTcb( );
+        if ( myTcb != null )
+            scheduler.wakeThread( myTcb );
+    }
+
+    // Waiting for one of the given children to exit. Returns the tid of
+    // the child that exited, or ERROR if none of the tids is a child of
+    // the caller that is alive or has exited without being joined.
+    private static int sysWaitpid( int tids[] ) {
+        TCB myTcb = scheduler.getMyTcb( );
+        if ( myTcb == null || tids == null || tids.length == 0 )
+            return ERROR;
+        int myTid = myTcb.getTid( );
+        boolean hasChild = false;
+        for ( int i = 0; i < tids.length && !hasChild; i++ ) {
+            // a child wakes me before it leaves the scheduler, so checking
+            // the scheduler first cannot miss one exiting in between
+            TCB child = scheduler.getTcb( tids[i] );
+            hasChild = ( child != null && child.getPid( ) == myTid
+                         && !child.getTerminated( ) )
+                || waitQueue.isPending( myTid, tids[i] );
+        }
+        if ( !hasChild )
+            return ERROR;
+        scheduler.blockThread( myTcb );
+        int child = waitQueue.enqueueAndSleep( myTid, tids );
+        scheduler.wakeThread( myTcb );
+        return child;
+    }
+
+    // Synchronizing disk data to a real file. Only one flush is in progress
+    // at a time. A caller that finds one running waits for it to finish;
+    // if that flush started before the caller arrived, the first waiter to
+    // get the lock starts the next flush on behalf of all of them.
+    private static int sysSync( ) {
+        TCB myTcb = scheduler.getMyTcb( );
+        long generation;
+        synchronized ( syncLock ) {
+            syncRequests++;
+            long myGeneration = syncStarted + 1; // first flush after my writes
+            if ( syncing && syncFinished < myGeneration ) {
+                // off the run queue until the flush in progress is over
+                if ( myTcb != null )
+                    scheduler.blockThread( myTcb );
+                while ( syncing && syncFinished < myGeneration ) {
+                    try {
+                        syncLock.wait( );
+                    } catch ( InterruptedException e ) { }
+                }
+                if ( myTcb != null )
+                    scheduler.wakeThread( myTcb );
+            }
+            if ( syncFinished >= myGeneration )
+                return OK; // somebody else flushed my writes
+            syncing = true;
+            generation = ++syncStarted;
+        }
+
+        acquireDisk( );
+        while ( disk.sync( ) == false )
+            ioQueue.enqueueAndSleep( COND_DISK_REQ );
+        while ( disk.testAndResetReady( ) == false )
+            ioQueue.enqueueAndSleep( COND_DISK_FIN );
+        // wake up the thread waiting for a request acceptance
+        ioQueue.dequeueAndWakeup( COND_DISK_REQ );
+        releaseDisk( );
+
+        synchronized ( syncLock ) {
+            syncFinished = generation;
+            syncing = false;
+            syncLock.notifyAll( );
+        }
+        return OK;
+    }
+
+    // A subsystem initializer that remembers how long it took
+    private static abstract class BootStep extends Thread {
+        long elapsed = 0;
+        abstract void init( );
+        public void run( ) {
+            long start = System.nanoTime( );
+            init( );
+            elapsed = System.nanoTime( ) - start;
+        }
+    }
+
+    // Booting the kernel. The scheduler, the disk and the cache do not
+    // depend on one another, so they are brought up concurrently. The
+    // file system reads the disk through the ioQueue and is mounted last.
+    private static int sysBoot( BootConfig config ) {
+        final BootConfig conf = ( config != null ) ? config : new BootConfig( );
+        long bootStart = System.nanoTime( );
+        bootStamp = System.currentTimeMillis( );
+        ThreadLog.setEnabled( conf.threadLog );
+
+        // a snapshot to restore, if any, decides the disk and the cache
+        Checkpoint snapshot = null;
+        if ( conf.restore != null ) {
+            try {
+                snapshot = Checkpoint.load( conf.restore );
+            } catch ( IOException e ) {
+                // boot cold, as without -restore
+                System.err.println( "threadOS: cannot restore " + conf.restore +
+                                    ": " + e + "; booting cold" );
+                conf.restore = null;
+            }
+            if ( snapshot != null ) {
+                conf.diskBlocks = snapshot.diskBlocks;
+                snapshot.fitCache( conf.cacheBlocks );
+            }
+        }
+        final Checkpoint restored = snapshot;
+
+        BootStep schedulerInit = new BootStep( ) {
+            void init( ) {
+                // instantiate and start a scheduler
+                scheduler = new Scheduler( conf.quantum, conf.maxThreads,
+                                           conf.levels, conf.boost, conf.cpus,
+                                           conf.policy );
+                scheduler.setTidRecycleDelay( conf.tidReuse );
+                scheduler.setAdaptive( conf.latency, conf.minQuantum,
+                                       conf.maxQuantum );
+                scheduler.setRealtimeBound( conf.rtBound / 100.0 );
+                scheduler.start( );
+
+                // instantiate and start the timers for SLEEP
+                timerWheel = new TimerWheel( scheduler, TIMER_TICK );
+                timerWheel.start( );
+            }
+        };
+        BootStep diskInit = new BootStep( ) {
+            void init( ) {
+                // instantiate and start a disk
+                disk = ( restored != null ) ? new Disk( restored.disk )
+                                            : new Disk( conf.diskBlocks );
+                disk.start( );
+            }
+        };
+        BootStep cacheInit = new BootStep( ) {
+            void init( ) {
+                // instantiate a cache memory
+                cache = new Cache( Disk.blockSize, conf.cacheBlocks );
+                if ( restored != null )
+                    cache.restore( restored );
+            }
+        };
+        BootStep steps[] = { schedulerInit, diskInit, cacheInit };
+        for ( int i = 0; i < steps.length; i++ )
+            steps[i].start( );
+        for ( int i = 0; i < steps.length; i++ ) {
+            try {
+                steps[i].join( );
+            } catch ( InterruptedException e ) {
+                return ERROR;
+            }
+        }
+
+        // instantiate synchronized queues
+        ioQueue = new SyncQueue( );
+        diskQueue = new DiskQueue( );
+        scheduler.setDiskQueue( diskQueue );
+        admission = new AdmissionControl( scheduler, conf.getRunnable( ),
+                                          conf.pending, conf.execTimeout );
+        waitQueue = new SyncQueue( scheduler.getMaxThreads( ) );
+
+        long mountStart = System.nanoTime( );
+        fileSystem = ( restored != null ) ? new FileSystem( restored )
+                         : new FileSystem( conf.diskBlocks, conf.inodes );
+        fileSystem.setScheduler( scheduler );
+        long mountTime = System.nanoTime( ) - mountStart;
+
+        registerMBeans( );
+
+        // sample user threads, leaving what was not dumped when ThreadOS quits
+        profiler = null;
+        if ( conf.profile >= 0 ) {
+            profiler = new Profiler( scheduler, conf.profile );
+            scheduler.setProfiler( profiler );
+            final Profiler last = profiler;
+            Runtime.getRuntime( ).addShutdownHook( new Thread( ) {
+                public void run( ) {
+                    try {
+                        if ( last.getSamples( ) > 0 )
+                            last.dump( conf.profileFile );
+                    } catch ( IOException e ) { }
+                }
+            } );
+        }
+
+        bootTime = System.nanoTime( ) - bootStart;
+        System.err.println( "threadOS: booted in " + bootTime / 1000000 + " ms" +
+                            " (scheduler " + schedulerInit.elapsed / 1000000 +
+                            " ms, disk " + diskInit.elapsed / 1000000 +
+                            " ms, cache " + cacheInit.elapsed / 1000000 +
+                            " ms, file system " + mountTime / 1000000 +
+                            " ms; " + conf + ")" );
+        return OK;
+    }
+
+    // Spawning a new thread with the given tickets, 0 for its parent's
+    private static int sysExec( String args[], int tickets ) {
         String thrName = args[0]; // args[0] has a thread name
         Object thrObj = null;
 
@@ -284,9 +793,16 @@ public class Kernel
             // instantiate a new thread of this object
             Thread t = new Thread( (Runnable)thrObj );
 
-            // add this thread into scheduler's circular list.
-            TCB newTcb = scheduler.addThread( t );
-            return ( newTcb != null ) ? newTcb.getTid( ) : ERROR;
+            // wait for admission, then add this thread into scheduler's
+            // circular list.
+            if ( !admission.admit( scheduler.getMyTcb( ) ) )
+                return ERROR;
+            TCB newTcb = scheduler.addThread( t, thrName, tickets );
+            if ( newTcb == null ) {
+                admission.release( );
+                return ERROR;
+            }
+            return newTcb.getTid( );
         }
         catch ( ClassNotFoundException e ) {
             System.out.println( e );
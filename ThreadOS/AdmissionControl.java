@@ -0,0 +1,112 @@
+import java.util.*;
+
+// Admission control for EXEC. At most maxRunnable user threads are
+// admitted at a time; further exec calls wait in a FIFO queue of at most
+// maxPending entries until a thread exits, and give up after timeout
+// milliseconds (0 waits forever). Calls arriving at a full queue are
+// refused at once, which pushes back on whoever is spawning. A caller
+// waiting for a slot is off the run queue meanwhile.
+public class AdmissionControl {
+
+    // An exec call waiting for a slot
+    private static class Waiter {
+	boolean admitted = false;
+    }
+
+    private Scheduler scheduler;
+    private int maxRunnable;
+    private int maxPending;
+    private long timeout;
+    private int admitted = 0;   // # threads holding a slot
+    private LinkedList<Waiter> pending = new LinkedList<Waiter>( );
+
+    // statistics
+    private long waits = 0;     // # calls that had to wait
+    private long waitTime = 0;  // total ms waited by admitted calls
+    private long maxWait = 0;   // longest ms waited by an admitted call
+    private long rejected = 0;  // # calls refused or timed out
+
+    public AdmissionControl( Scheduler scheduler, int maxRunnable,
+			     int maxPending, long timeout ) {
+	this.scheduler = scheduler;
+	this.maxRunnable = maxRunnable;
+	this.maxPending = maxPending;
+	this.timeout = timeout;
+    }
+
+    // Take a slot for a new thread, waiting for one if necessary. Returns
+    // false if the queue is full or the wait timed out. The caller is the
+    // TCB of the thread calling exec, null if it has none.
+    public boolean admit( TCB caller ) {
+	Waiter waiter = new Waiter( );
+	long start = System.currentTimeMillis( );
+	synchronized ( this ) {
+	    if ( admitted < maxRunnable && pending.size( ) == 0 ) {
+		admitted++;
+		return true;
+	    }
+	    if ( pending.size( ) >= maxPending ) {
+		rejected++;
+		return false;
+	    }
+	    pending.addLast( waiter );
+	    waits++;
+	    if ( caller != null )
+		scheduler.blockThread( caller );
+	    try {
+		while ( !waiter.admitted ) {
+		    long left = ( timeout > 0 ) ?
+			start + timeout - System.currentTimeMillis( ) : 0;
+		    if ( timeout > 0 && left <= 0 ) {
+			pending.remove( waiter );
+			rejected++;
+			return false;
+		    }
+		    try {
+			wait( left );
+		    } catch ( InterruptedException e ) { }
+		}
+	    } finally {
+		if ( caller != null )
+		    scheduler.wakeThread( caller );
+	    }
+	    long waited = System.currentTimeMillis( ) - start;
+	    waitTime += waited;
+	    maxWait = Math.max( maxWait, waited );
+	    return true;
+	}
+    }
+
+    // Give back the slot of an exiting thread, or of an exec that failed
+    public synchronized void release( ) {
+	if ( pending.size( ) > 0 ) {
+	    pending.removeFirst( ).admitted = true; // hand the slot over
+	    notifyAll( );
+	} else if ( admitted > 0 )
+	    admitted--;
+    }
+
+    public synchronized int getAdmitted( ) {
+	return admitted;
+    }
+
+    public synchronized int getPending( ) {
+	return pending.size( );
+    }
+
+    public synchronized long getWaits( ) {
+	return waits;
+    }
+
+    public synchronized long getWaitTime( ) {
+	return waitTime;
+    }
+
+    public synchronized long getMaxWait( ) {
+	return maxWait;
+    }
+
+    public synchronized long getRejected( ) {
+	return rejected;
+    }
+}
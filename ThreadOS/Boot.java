@@ -6,8 +6,13 @@ public class Boot
     static final int ERROR = -1;
 
     public static void main ( String args[] ) {
+	BootConfig config = BootConfig.parse( args );
+	if ( config == null ) {
+	    System.err.print( BootConfig.usage( ) );
+	    System.exit( 1 );
+	}
 	SysLib.cerr( "threadOS ver 1.0:\n" );
-	SysLib.boot( );
+	SysLib.boot( config );
 	SysLib.cerr( "Type ? for help\n" );
 
 	String[] loader = new String[1];
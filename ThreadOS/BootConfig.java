@@ -0,0 +1,274 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Boot parameters handed from Boot.main( ) to the Kernel's BOOT system call.
+ * Every parameter has the value that used to be hard-coded in the Kernel, so
+ * booting without arguments behaves exactly as before.
+ *
+ * Parameters are read from the command line:
+ *
+ *      java Boot -disk 1000 -cache 10 -quantum 1000 -threads 10000 -inodes 64
+ *
+ * or from a properties file given with -config, whose keys are the option
+ * names without the leading dash:
+ *
+ *      java Boot -config threados.conf
+ *
+ * Options given on the command line override those read from the file.
+ *
+ * Admission control for exec is set with -runnable (the number of user
+ * threads admitted at a time, -threads by default), -pending (how many exec calls may wait for
+ * admission) and -exectimeout (how long they wait, in ms; 0 is forever).
+ *
+ * The sampling profiler is turned on with -profile, whose value is either
+ * "quantum", to sample the running thread at every quantum boundary, or a
+ * sampling interval in ms. What has not been dumped with SysLib.profile( )
+ * is written to -profileout (profile.folded by default) when ThreadOS quits.
+ *
+ * The scheduler has -levels feedback levels, level n getting a quantum of
+ * -quantum << n ms, and every -boost ms all threads go back to level 0
+ * (0 never boosts). With -levels 1 it is plain round robin. -cpus sets the
+ * number of virtual CPUs dispatching user threads. -policy picks how each
+ * CPU chooses the next thread: mlfq (the default), rr, lottery, stride or
+ * fair, which shares the CPU among thread groups before their threads; see
+ * SchedulingPolicy.
+ *
+ * With -latency ms the time slice adapts to the load instead of being
+ * -quantum: the threads runnable on a CPU share a period of -latency ms,
+ * each slice kept within -minquantum and -maxquantum, and threads that
+ * tend to block before their slice is over get up to twice theirs.
+ *
+ * Real-time threads (SysLib.realtime( )) may reserve up to -rtbound percent
+ * of each CPU, 90 by default.
+ *
+ * -threads may go up to a million. A thread ID that is given back is handed
+ * out again only after -tidreuse ms (0 by default, at once), so that a
+ * parent waiting on an old ID does not mistake a new thread for it.
+ * -threadlog off stops the lines logged as every thread is created and
+ * exits, which is worth doing with that many (see ThreadLog).
+ *
+ * -restore boots from a snapshot taken with SysLib.checkpoint( ); the disk
+ * size is then that of the snapshot.
+ */
+public class BootConfig {
+
+    public static final int DEFAULT_DISK_BLOCKS = 1000;
+    public static final int DEFAULT_CACHE_BLOCKS = 10;
+    public static final int DEFAULT_QUANTUM = 1000;
+    public static final int DEFAULT_MAX_THREADS = 10000;
+    public static final int DEFAULT_INODES = 64;
+    public static final int DEFAULT_PENDING = 1000;
+    public static final int DEFAULT_EXEC_TIMEOUT = 0;
+    public static final int DEFAULT_LEVELS = 3;
+    public static final int DEFAULT_BOOST = 10000;
+    public static final int DEFAULT_CPUS = 1;
+    public static final String DEFAULT_POLICY = "mlfq";
+    public static final int DEFAULT_LATENCY = 0;
+    public static final int DEFAULT_MIN_QUANTUM = 10;
+    public static final int DEFAULT_MAX_QUANTUM = 1000;
+    public static final int DEFAULT_RT_BOUND = 90;
+    public static final int DEFAULT_TID_REUSE = 0;
+    public static final int MAX_THREADS = 1000000;
+    public static final int PROFILE_OFF = -1;
+    public static final int PROFILE_QUANTUM = 0;
+    public static final String DEFAULT_PROFILE_FILE = "profile.folded";
+
+    public int diskBlocks = DEFAULT_DISK_BLOCKS;    /* # blocks of DISK */
+    public int cacheBlocks = DEFAULT_CACHE_BLOCKS;  /* # cache pages */
+    public int quantum = DEFAULT_QUANTUM;           /* scheduler time slice */
+    public int latency = DEFAULT_LATENCY;           /* adaptive period, 0 off */
+    public int minQuantum = DEFAULT_MIN_QUANTUM;    /* ... and its bounds */
+    public int maxQuantum = DEFAULT_MAX_QUANTUM;
+    public int rtBound = DEFAULT_RT_BOUND;          /* % of a CPU reservable */
+    public int levels = DEFAULT_LEVELS;             /* # feedback levels */
+    public int boost = DEFAULT_BOOST;               /* ms between boosts */
+    public int cpus = DEFAULT_CPUS;                 /* # virtual CPUs */
+    public String policy = DEFAULT_POLICY;          /* scheduling policy */
+    public int maxThreads = DEFAULT_MAX_THREADS;    /* size of the tid space */
+    public int tidReuse = DEFAULT_TID_REUSE;        /* ms before a tid is reused */
+    public int inodes = DEFAULT_INODES;             /* # inodes on format */
+    public int runnable = 0;                        /* # admitted, 0 for -threads */
+    public int pending = DEFAULT_PENDING;           /* # exec calls waiting */
+    public int execTimeout = DEFAULT_EXEC_TIMEOUT;  /* ms an exec may wait */
+    public int profile = PROFILE_OFF;               /* ms between samples */
+    public String profileFile = DEFAULT_PROFILE_FILE; /* collapsed stacks */
+    public String restore = null;                   /* checkpoint to boot */
+    public boolean threadLog = true;                /* log thread lifetimes */
+
+    public BootConfig( ) {
+    }
+
+    /**
+     * The number of user threads exec admits at a time: -runnable, or
+     * -threads if it was not given, but never more than -threads.
+     *
+     * @return the admission limit
+     */
+    public int getRunnable( ) {
+        return ( runnable > 0 ) ? Math.min( runnable, maxThreads ) : maxThreads;
+    }
+
+    /**
+     * Builds a configuration from Boot.main( )'s arguments.
+     *
+     * @param args command line arguments
+     * @return the configuration, or null if an argument was invalid
+     */
+    public static BootConfig parse( String args[] ) {
+        BootConfig config = new BootConfig( );
+        for ( int i = 0; i < args.length; i += 2 ) {
+            if ( !args[i].startsWith( "-" ) || i + 1 == args.length ) {
+                System.err.println( "threadOS: bad boot option " + args[i] );
+                return null;
+            }
+        }
+        // the config file first, so that the command line overrides it
+        for ( int i = 0; i < args.length; i += 2 )
+            if ( args[i].equals( "-config" ) && !config.load( args[i + 1] ) )
+                return null;
+        for ( int i = 0; i < args.length; i += 2 )
+            if ( !args[i].equals( "-config" )
+                 && !config.set( args[i].substring( 1 ), args[i + 1] ) )
+                return null;
+        return config;
+    }
+
+    // Read key=value pairs from a properties file
+    private boolean load( String fileName ) {
+        Properties props = new Properties( );
+        try {
+            FileInputStream ifstream = new FileInputStream( fileName );
+            props.load( ifstream );
+            ifstream.close( );
+        } catch ( IOException e ) {
+            System.err.println( "threadOS: cannot read " + fileName + ": " + e );
+            return false;
+        }
+        for ( String key : props.stringPropertyNames( ) ) {
+            if ( !set( key, props.getProperty( key ).trim( ) ) )
+                return false;
+        }
+        return true;
+    }
+
+    // Set a single parameter; file names are taken as they are, the
+    // policy must be one the Scheduler knows, the thread log is on or off
+    // and the profiler also takes "quantum", every other parameter must be a
+    // positive integer, except for the exec timeout, boost, tid reuse delay
+    // and latency which may be 0
+    private boolean set( String key, String value ) {
+        if ( key.equals( "profileout" ) ) {
+            profileFile = value;
+            return true;
+        }
+        if ( key.equals( "restore" ) ) {
+            restore = value;
+            return true;
+        }
+        if ( key.equals( "policy" ) ) {
+            if ( Scheduler.newPolicy( value, levels ) == null ) {
+                System.err.println( "threadOS: unknown policy " + value );
+                return false;
+            }
+            policy = value;
+            return true;
+        }
+        if ( key.equals( "threadlog" ) ) {
+            if ( !value.equals( "on" ) && !value.equals( "off" ) ) {
+                System.err.println( "threadOS: bad value for " + key + ": " + value );
+                return false;
+            }
+            threadLog = value.equals( "on" );
+            return true;
+        }
+        if ( key.equals( "profile" ) && value.equals( "quantum" ) ) {
+            profile = PROFILE_QUANTUM;
+            return true;
+        }
+        int n;
+        try {
+            n = Integer.parseInt( value );
+        } catch ( NumberFormatException e ) {
+            n = -1;
+        }
+        if ( n < 0 || ( n == 0 && !key.equals( "exectimeout" )
+                        && !key.equals( "boost" ) && !key.equals( "tidreuse" )
+                        && !key.equals( "latency" ) )
+             || ( key.equals( "threads" ) && n > MAX_THREADS )
+             || ( key.equals( "rtbound" ) && n > 100 ) ) {
+            System.err.println( "threadOS: bad value for " + key + ": " + value );
+            return false;
+        }
+        if ( key.equals( "disk" ) )
+            diskBlocks = n;
+        else if ( key.equals( "cache" ) )
+            cacheBlocks = n;
+        else if ( key.equals( "quantum" ) )
+            quantum = n;
+        else if ( key.equals( "latency" ) )
+            latency = n;
+        else if ( key.equals( "minquantum" ) )
+            minQuantum = n;
+        else if ( key.equals( "maxquantum" ) )
+            maxQuantum = n;
+        else if ( key.equals( "rtbound" ) )
+            rtBound = n;
+        else if ( key.equals( "levels" ) )
+            levels = n;
+        else if ( key.equals( "boost" ) )
+            boost = n;
+        else if ( key.equals( "cpus" ) )
+            cpus = n;
+        else if ( key.equals( "threads" ) )
+            maxThreads = n;
+        else if ( key.equals( "tidreuse" ) )
+            tidReuse = n;
+        else if ( key.equals( "inodes" ) )
+            inodes = n;
+        else if ( key.equals( "runnable" ) )
+            runnable = n;
+        else if ( key.equals( "pending" ) )
+            pending = n;
+        else if ( key.equals( "exectimeout" ) )
+            execTimeout = n;
+        else if ( key.equals( "profile" ) )
+            profile = n;
+        else {
+            System.err.println( "threadOS: unknown boot option " + key );
+            return false;
+        }
+        return true;
+    }
+
+    public static String usage( ) {
+        return "usage: java Boot [-config file] [-disk blocks] [-cache blocks]\n" +
+               "                 [-quantum ms] [-levels n] [-boost ms] [-cpus n]\n" +
+               "                 [-latency ms] [-minquantum ms] [-maxquantum ms]\n" +
+               "                 [-policy mlfq|rr|lottery|stride|fair]\n" +
+               "                 [-rtbound %]\n" +
+               "                 [-threads max] [-tidreuse ms] [-threadlog on|off]\n" +
+               "                 [-inodes files]\n" +
+               "                 [-runnable max] [-pending max] [-exectimeout ms]\n" +
+               "                 [-profile quantum|ms] [-profileout file]\n" +
+               "                 [-restore checkpoint]\n";
+    }
+
+    public String toString( ) {
+        return "disk=" + diskBlocks + " cache=" + cacheBlocks +
+               " quantum=" + quantum +
+               ( latency == 0 ? "" : " latency=" + latency + " minquantum=" +
+                 minQuantum + " maxquantum=" + maxQuantum ) +
+               " levels=" + levels +
+               " boost=" + boost + " cpus=" + cpus + " policy=" + policy +
+               " rtbound=" + rtBound +
+               " threads=" + maxThreads +
+               " tidreuse=" + tidReuse +
+               ( threadLog ? "" : " threadlog=off" ) +
+               " inodes=" + inodes + " runnable=" + getRunnable( ) +
+               " pending=" + pending + " exectimeout=" + execTimeout +
+               ( profile == PROFILE_OFF ? "" : " profile=" +
+                 ( profile == PROFILE_QUANTUM ? "quantum" : "" + profile ) ) +
+               ( restore == null ? "" : " restore=" + restore );
+    }
+}
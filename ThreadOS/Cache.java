@@ -0,0 +1,239 @@
+import java.util.*;
+
+public class Cache implements CacheMBean {
+    private int blockSize;            // 512 bytes
+    private Vector<byte[]> pages;             // This is actual pages that include data
+    private int victim;
+
+    private class Entry {
+	public static final int INVALID = -1;
+	public boolean reference;
+	public boolean dirty;
+	public int frame;
+	public Entry( ) {
+	    reference = false;
+	    dirty = false;
+	    frame = INVALID;
+	}
+    }
+
+    private volatile Entry[] pageTable = null;
+
+    // statistics, updated under the cache's monitor but readable without it
+    // so that monitoring never waits for a cache operation doing disk I/O
+    private volatile long hits = 0;      // cread/cwrite served from a page
+    private volatile long misses = 0;    // cread/cwrite that had to load a page
+    private volatile long evictions = 0; // valid pages replaced by a victim
+    private volatile int dirtyPages = 0; // pages not written back yet
+
+    private int findFreePage( ) {
+	for ( int i = 0; i < pageTable.length; i++ ) {
+	    if ( pageTable[i].frame == Entry.INVALID )
+		return i;
+	}
+	return -1;
+    }
+
+    // the enhanced second-chance algorithm
+    private int nextVictim( ) {
+	while ( true ) {
+	    victim = ( victim + 1 ) % pageTable.length;
+	    if ( pageTable[victim].reference == false )
+		return victim;
+	    pageTable[victim].reference = false;
+	}
+    }
+
+    private void writeBack( int victimEntry ) {
+	if ( pageTable[victimEntry].frame != Entry.INVALID &&
+	     pageTable[victimEntry].dirty == true ) {
+	    byte[] p = pages.elementAt( victimEntry );
+	    SysLib.rawwrite( pageTable[victimEntry].frame, p );
+	    pageTable[victimEntry].dirty = false;
+	    dirtyPages--;
+	}
+    }
+
+    // find a page for a block that is not cached, evicting one if need be
+    private int allocatePage( ) {
+	int victimEntry = findFreePage( );
+	if ( victimEntry == -1 ) {
+	    victimEntry = nextVictim( );
+	    evictions++;
+	}
+	writeBack( victimEntry );
+	return victimEntry;
+    }
+
+    public Cache( int blockSize, int cacheBlocks ) {
+	this.blockSize = blockSize;
+	pages = new Vector<byte[]>( );
+	for ( int i = 0; i < cacheBlocks; i++ ) {
+	    byte[] p = new byte[blockSize];
+	    pages.addElement( p );
+	}
+	victim = cacheBlocks - 1;
+	pageTable = new Entry[ cacheBlocks ];
+	for ( int i = 0; i < cacheBlocks; i++ )
+	    pageTable[i] = new Entry( );
+    }
+
+    public synchronized boolean read( int blockId, byte buffer[] ) {
+	if ( blockId < 0 ) {
+	    SysLib.cerr( "threadOS: a wrong blockId for cread\n" );
+	    return false;
+	}
+
+	// locate a valid page
+	for ( int i = 0; i < pageTable.length; i++ ) {
+	    if ( pageTable[i].frame == blockId ) {
+		// cache hit!!
+		// copy pages[i] to buffer
+		byte[] p = pages.elementAt( i );
+		System.arraycopy( p, 0, buffer, 0, blockSize );
+		pageTable[i].reference = true;
+		hits++;
+		return true;
+	    }
+	}
+
+	// page miss!!
+	misses++;
+	int victimEntry = allocatePage( );
+
+	// read a requested block from disk
+	SysLib.rawread( blockId, buffer );
+
+	// cache it
+	// copy buffer to pages[victimEntry]
+	byte[] p = new byte[blockSize];
+	System.arraycopy( buffer, 0, p, 0, blockSize );
+	pages.set( victimEntry, p );
+	pageTable[victimEntry].frame = blockId;
+	pageTable[victimEntry].reference = true;
+	return true;
+    }
+
+    public synchronized boolean write( int blockId, byte buffer[] ) {
+	if ( blockId < 0 ) {
+	    SysLib.cerr( "threadOS: a wrong blockId for cwrite\n" );
+	    return false;
+	}
+
+	// locate a valid page
+	for ( int i = 0; i < pageTable.length; i++ ) {
+	    if ( pageTable[i].frame == blockId ) {
+		// cache hit
+		// copy buffer to pages[i]
+		byte[] p = new byte[blockSize];
+		System.arraycopy( buffer, 0, p, 0, blockSize );
+		pages.set( i, p );
+		pageTable[i].reference = true;
+		if ( !pageTable[i].dirty )
+		    dirtyPages++;
+		pageTable[i].dirty = true;
+		hits++;
+		return true;
+	    }
+	}
+
+	// page miss
+	misses++;
+	int victimEntry = allocatePage( );
+
+	// cache it but not write through.
+	// copy buffer to pages[victimEntry]
+	byte[] p = new byte[blockSize];
+	System.arraycopy( buffer, 0, p, 0, blockSize );
+	pages.set( victimEntry, p );
+	pageTable[victimEntry].frame = blockId;
+	pageTable[victimEntry].reference = true;
+	pageTable[victimEntry].dirty = true;
+	dirtyPages++;
+	return true;
+    }
+
+    public synchronized void sync( ) {
+	for ( int i = 0; i < pageTable.length; i++ )
+	    writeBack( i );
+	SysLib.sync( );
+    }
+
+    public synchronized void flush( ) {
+	for ( int i = 0; i < pageTable.length; i++ ) {
+	    writeBack( i );
+	    pageTable[i].reference = false;
+	    pageTable[i].frame = Entry.INVALID;
+	}
+	SysLib.sync( );
+    }
+
+    public long getHits( ) {
+	return hits;
+    }
+
+    public long getMisses( ) {
+	return misses;
+    }
+
+    public long getEvictions( ) {
+	return evictions;
+    }
+
+    public int getDirtyPages( ) {
+	return dirtyPages;
+    }
+
+    public int getSize( ) {
+	return pageTable.length;
+    }
+
+    // Record the pages in a checkpoint, dirty ones included
+    public synchronized void checkpoint( Checkpoint c ) {
+	c.cacheFrames = new int[pageTable.length];
+	c.cacheDirty = new boolean[pageTable.length];
+	c.cachePages = new byte[pageTable.length][];
+	for ( int i = 0; i < pageTable.length; i++ ) {
+	    c.cacheFrames[i] = pageTable[i].frame;
+	    c.cacheDirty[i] = pageTable[i].dirty;
+	    c.cachePages[i] = pages.elementAt( i );
+	}
+    }
+
+    // Fill the pages from a checkpoint taken with a cache of the same size
+    // or fitted to this one with Checkpoint.fitCache( )
+    public synchronized void restore( Checkpoint c ) {
+	for ( int i = 0; i < pageTable.length && i < c.cacheFrames.length; i++ ) {
+	    if ( c.cacheFrames[i] == Entry.INVALID )
+		continue;
+	    pages.set( i, c.cachePages[i] );
+	    pageTable[i].frame = c.cacheFrames[i];
+	    pageTable[i].dirty = c.cacheDirty[i];
+	    if ( c.cacheDirty[i] )
+		dirtyPages++;
+	}
+    }
+
+    // Change the number of pages. Dirty pages are written back first;
+    // pages that fit in the new size keep their contents.
+    public synchronized void setSize( int cacheBlocks ) {
+	if ( cacheBlocks <= 0 || cacheBlocks == pageTable.length )
+	    return;
+	Entry[] newTable = new Entry[cacheBlocks];
+	Vector<byte[]> newPages = new Vector<byte[]>( );
+	for ( int i = 0; i < cacheBlocks; i++ ) {
+	    if ( i < pageTable.length ) {
+		newTable[i] = pageTable[i];
+		newPages.addElement( pages.elementAt( i ) );
+	    } else {
+		newTable[i] = new Entry( );
+		newPages.addElement( new byte[blockSize] );
+	    }
+	}
+	for ( int i = cacheBlocks; i < pageTable.length; i++ )
+	    writeBack( i );
+	pages = newPages;
+	pageTable = newTable;
+	victim = cacheBlocks - 1;
+    }
+}
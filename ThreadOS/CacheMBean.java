@@ -0,0 +1,9 @@
+// The Cache as seen through JMX (ThreadOS:type=Cache)
+public interface CacheMBean {
+    public long getHits( );
+    public long getMisses( );
+    public long getEvictions( );
+    public int getDirtyPages( );
+    public int getSize( );              // pages
+    public void setSize( int pages );   // resize, writing back dirty pages
+}
@@ -0,0 +1,183 @@
+import java.io.*;
+
+/**
+ * A snapshot of the kernel's in-memory state, taken by the CHECKPOINT
+ * system call while the file system is quiesced and booted from with
+ * -restore. It holds
+ *
+ *      the disk image, keeping only the blocks that are not all zero
+ *      the cache pages, with their block numbers and dirty bits
+ *      the superblock's counters and the directory, as kept in memory
+ *
+ * so that a restored kernel starts with a warm cache and mounts its file
+ * system without reading the superblock and the directory from the disk.
+ * Open files are not part of a snapshot; a checkpoint is refused while
+ * any file is open.
+ */
+public class Checkpoint {
+
+    private static final int MAGIC = 0x54434b31;        /* "TCK1" */
+
+    public int diskBlocks;              /* # blocks of the disk image */
+    public byte disk[];                 /* the disk image */
+
+    public int cacheFrames[];           /* block held by each page, or -1 */
+    public boolean cacheDirty[];        /* pages not written back yet */
+    public byte cachePages[][];
+
+    public int totalBlocks;             /* the superblock */
+    public int totalINodes;
+    public int freeList;
+    public byte directory[];            /* Directory.directory2bytes( ) */
+
+    public Checkpoint( ) {
+    }
+
+    /**
+     * Writes this snapshot to a file.
+     *
+     * @param fileName the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    public void save( String fileName ) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream( new FileOutputStream( fileName ) ) );
+        try {
+            out.writeInt( MAGIC );
+            out.writeInt( diskBlocks );
+            int used = 0;
+            for ( int block = 0; block < diskBlocks; block++ )
+                if ( !isZero( disk, block * Disk.blockSize ) )
+                    used++;
+            out.writeInt( used );
+            for ( int block = 0; block < diskBlocks; block++ ) {
+                if ( !isZero( disk, block * Disk.blockSize ) ) {
+                    out.writeInt( block );
+                    out.write( disk, block * Disk.blockSize, Disk.blockSize );
+                }
+            }
+
+            out.writeInt( cacheFrames.length );
+            for ( int i = 0; i < cacheFrames.length; i++ ) {
+                out.writeInt( cacheFrames[i] );
+                out.writeBoolean( cacheDirty[i] );
+                if ( cacheFrames[i] >= 0 )
+                    out.write( cachePages[i] );
+            }
+
+            out.writeInt( totalBlocks );
+            out.writeInt( totalINodes );
+            out.writeInt( freeList );
+            out.writeInt( directory.length );
+            out.write( directory );
+        } finally {
+            out.close( );
+        }
+    }
+
+    /**
+     * Reads a snapshot written by save( ). Every count, block number and
+     * length in it is checked before it is used, so that a truncated or
+     * corrupt snapshot is refused rather than half loaded.
+     *
+     * @param fileName the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file cannot be read or is not a valid
+     *         snapshot
+     */
+    public static Checkpoint load( String fileName ) throws IOException {
+        Checkpoint c = new Checkpoint( );
+        long length = new File( fileName ).length( );
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream( new FileInputStream( fileName ) ) );
+        try {
+            if ( in.readInt( ) != MAGIC )
+                throw new IOException( fileName + " is not a checkpoint" );
+            c.diskBlocks = check( "disk size", in.readInt( ), 1,
+                                  Integer.MAX_VALUE / Disk.blockSize );
+            c.disk = new byte[c.diskBlocks * Disk.blockSize];
+            // each block stored takes its number and its data
+            int used = check( "block count", in.readInt( ), 0,
+                              Math.min( c.diskBlocks, length / Disk.blockSize ) );
+            for ( ; used > 0; used-- ) {
+                int block = check( "block", in.readInt( ), 0, c.diskBlocks - 1 );
+                in.readFully( c.disk, block * Disk.blockSize, Disk.blockSize );
+            }
+
+            // ... and each cache page at least a frame and a dirty bit
+            int pages = check( "cache size", in.readInt( ), 0, length / 5 );
+            c.cacheFrames = new int[pages];
+            c.cacheDirty = new boolean[pages];
+            c.cachePages = new byte[pages][];
+            for ( int i = 0; i < pages; i++ ) {
+                c.cacheFrames[i] = check( "cache frame", in.readInt( ), -1,
+                                          c.diskBlocks - 1 );
+                c.cacheDirty[i] = in.readBoolean( );
+                if ( c.cacheFrames[i] >= 0 ) {
+                    c.cachePages[i] = new byte[Disk.blockSize];
+                    in.readFully( c.cachePages[i] );
+                }
+            }
+
+            c.totalBlocks = check( "superblock size", in.readInt( ), 0,
+                                   c.diskBlocks );
+            c.totalINodes = check( "inode count", in.readInt( ), 0,
+                                   Integer.MAX_VALUE );
+            c.freeList = in.readInt( );
+            c.directory = new byte[check( "directory size", in.readInt( ), 0,
+                                          length )];
+            in.readFully( c.directory );
+        } finally {
+            in.close( );
+        }
+        return c;
+    }
+
+    /**
+     * Checks a number read from a snapshot.
+     *
+     * @param what what the number is, for the error message
+     * @param n the number read
+     * @param min its least valid value
+     * @param max its greatest valid value
+     * @return n
+     * @throws IOException if n is out of range
+     */
+    private static int check( String what, int n, long min, long max )
+        throws IOException {
+        if ( n < min || n > max )
+            throw new IOException( "bad " + what + " " + n + " in checkpoint" );
+        return n;
+    }
+
+    /**
+     * Fits the cache pages to a cache of the given size. Dirty pages that
+     * do not fit are applied to the disk image instead of being lost.
+     *
+     * @param cacheBlocks # pages of the cache to restore into
+     */
+    public void fitCache( int cacheBlocks ) {
+        if ( cacheBlocks >= cacheFrames.length )
+            return;
+        for ( int i = cacheBlocks; i < cacheFrames.length; i++ )
+            if ( cacheFrames[i] >= 0 && cacheDirty[i] )
+                System.arraycopy( cachePages[i], 0, disk,
+                                  cacheFrames[i] * Disk.blockSize, Disk.blockSize );
+        int frames[] = new int[cacheBlocks];
+        boolean dirty[] = new boolean[cacheBlocks];
+        byte pages[][] = new byte[cacheBlocks][];
+        System.arraycopy( cacheFrames, 0, frames, 0, cacheBlocks );
+        System.arraycopy( cacheDirty, 0, dirty, 0, cacheBlocks );
+        System.arraycopy( cachePages, 0, pages, 0, cacheBlocks );
+        cacheFrames = frames;
+        cacheDirty = dirty;
+        cachePages = pages;
+    }
+
+    private static boolean isZero( byte data[], int offset ) {
+        for ( int i = offset; i < offset + Disk.blockSize; i++ )
+            if ( data[i] != 0 )
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,341 @@
+// A virtual CPU of the Scheduler. Each CPU is a dispatcher thread with
+// its own ready TCBs, kept by a SchedulingPolicy that decides which one
+// runs next and for how long. Threads with a CPU reservation are kept by
+// the CPU's RealtimeClass instead and run ahead of all others. A CPU that
+// runs dry steals a ready TCB from the busiest other CPU before going idle.
+//
+// A CPU runs one user thread at a time. It grants the thread a run permit
+// when dispatching it and revokes the permit when the quantum is over,
+// then waits for the thread to stop at a safepoint (a system call entry
+// or exit), block or exit before dispatching the next one. A thread that
+// keeps computing without a system call for a time slice past that is
+// counted as an overrun and left running beside the next one.
+//
+// The policy, the running TCB and the preemption flag are guarded by the
+// CPU's monitor. A TCB's level and CPU only change under the monitor of
+// the CPU it is queued on; to move a TCB between two CPUs the Scheduler
+// takes both monitors, the lower id first.
+public class Cpu extends Thread {
+    private Scheduler scheduler;
+    private int id;
+    private SchedulingPolicy policy; // ready TCBs; running included
+    private RealtimeClass realtime = new RealtimeClass( ); // ... reserved ones
+    private TCB running = null;     // the TCB holding this CPU
+    private boolean preempted = false; // its quantum was cut short
+    private boolean idle = false;   // waiting for a TCB
+    private boolean kicked = false; // ... and told to look for one
+
+    // statistics, written by this CPU's own thread only, so ++ loses
+    // nothing; volatile for the readers
+    private volatile long contextSwitches = 0;
+    private volatile long steals = 0;
+    private volatile long overruns = 0;
+
+    public Cpu( Scheduler scheduler, int id, SchedulingPolicy policy ) {
+	this.scheduler = scheduler;
+	this.id = id;
+	this.policy = policy;
+	setDaemon( true );
+    }
+
+    public int getCpuId( ) {
+	return id;
+    }
+
+    public SchedulingPolicy getPolicy( ) {
+	return policy;
+    }
+
+    public synchronized TCB getRunning( ) {
+	return running;
+    }
+
+    public long getContextSwitches( ) {
+	return contextSwitches;
+    }
+
+    public long getSteals( ) {
+	return steals;
+    }
+
+    public long getOverruns( ) {
+	return overruns;
+    }
+
+    // The number of TCBs queued on this CPU, the running one included
+    public synchronized int getLoad( ) {
+	return policy.size( ) + realtime.size( );
+    }
+
+    // Thread groups on this CPU and the TCBs they count under the fair
+    // policy; 0 under the others
+    public synchronized int getThreadGroups( ) {
+	return ( policy instanceof FairSharePolicy ) ?
+	    ( ( FairSharePolicy )policy ).getGroups( ) : 0;
+    }
+
+    public synchronized int getGroupMembers( ) {
+	return ( policy instanceof FairSharePolicy ) ?
+	    ( ( FairSharePolicy )policy ).getMembers( ) : 0;
+    }
+
+    public synchronized boolean isIdle( ) {
+	return idle;
+    }
+
+    // Queue a new TCB or one from another CPU, preempting the running TCB
+    // if the policy says so and waking this CPU if it was idle
+    public synchronized void add( TCB tcb ) {
+	tcb.setCpu( this );
+	policy.onAdd( tcb );
+	arrived( tcb );
+    }
+
+    // Queue a TCB that was blocked
+    public synchronized void wake( TCB tcb ) {
+	tcb.setCpu( this );
+	if ( tcb.getReservation( ) != null )
+	    realtime.add( tcb );
+	else
+	    policy.onWake( tcb );
+	arrived( tcb );
+    }
+
+    private void arrived( TCB tcb ) {
+	boolean preempts;
+	if ( tcb.getReservation( ) != null )
+	    preempts = realtime.preempts( tcb, running, System.currentTimeMillis( ) );
+	else
+	    preempts = running != null && running.getReservation( ) == null
+		&& policy.preempts( tcb, running );
+	if ( preempts )
+	    preempted = true;
+	kicked = true;
+	notify( );
+    }
+
+    // Take a blocking TCB off this CPU, ending its quantum if it is running
+    public synchronized boolean remove( TCB tcb ) {
+	boolean removed = ( tcb.getReservation( ) != null ) ?
+	    realtime.remove( tcb ) : policy.onBlock( tcb );
+	if ( tcb == running ) {
+	    preempted = true;
+	    notify( );
+	}
+	return removed;
+    }
+
+    // Lend a TCB on this CPU a waiter's priority, or return it; a reserved
+    // TCB keeps it for when it is an ordinary one again
+    public synchronized boolean lend( TCB holder, TCB waiter ) {
+	if ( holder.getReservation( ) != null )
+	    return holder.lendCpuPriority( waiter );
+	return policy.lend( holder, waiter );
+    }
+
+    public synchronized void unlend( TCB holder ) {
+	if ( holder.getReservation( ) != null )
+	    holder.returnCpuPriority( );
+	else
+	    policy.unlend( holder );
+    }
+
+    // Take a ready TCB that is not running for another CPU, preferably the
+    // one this CPU would have gotten to last. Returns null if there is none.
+    public synchronized TCB takeReady( ) {
+	return policy.takeReady( running );
+    }
+
+    // Terminate a TCB and take it off this CPU for good, so that it no
+    // longer counts towards the load or the lottery. Returns true if it
+    // was not running, for the caller to reap it; a running one is reaped
+    // here at the end of its quantum, which ends now.
+    public synchronized boolean exit( TCB tcb ) {
+	tcb.setTerminated( );
+	if ( tcb.getReservation( ) != null )
+	    realtime.leave( tcb );
+	else
+	    policy.onExit( tcb );
+	if ( tcb != running )
+	    return true;
+	endQuantum( tcb );
+	return false;
+    }
+
+    // End a TCB's quantum now if it is running
+    public synchronized void endQuantum( TCB tcb ) {
+	if ( tcb == running ) {
+	    preempted = true;
+	    notify( );
+	}
+    }
+
+    // Tell an idle CPU to look for a TCB to steal
+    public synchronized void kick( ) {
+	kicked = true;
+	notify( );
+    }
+
+    // Let the policy forgive long-running TCBs
+    public synchronized void boost( ) {
+	policy.boost( );
+    }
+
+    // Reserve this CPU for the running TCB, or change its reservation;
+    // false if that would overload the real-time class. The TCB leaves
+    // the policy as if it had exited, and joins it again on unreserve( ).
+    public synchronized boolean reserve( TCB tcb, Reservation r, double bound ) {
+	boolean reserved = ( tcb.getReservation( ) != null );
+	if ( !realtime.admit( tcb, r, bound ) )
+	    return false;
+	if ( !reserved ) {
+	    boolean ready = policy.onBlock( tcb );
+	    policy.onExit( tcb );
+	    if ( ready )
+		realtime.add( tcb );
+	}
+	endQuantum( tcb ); // dispatch by deadline from now on
+	return true;
+    }
+
+    // Drop a TCB's reservation, returning it to the policy as a new TCB
+    public synchronized void unreserve( TCB tcb ) {
+	if ( tcb.getReservation( ) == null )
+	    return;
+	boolean ready = realtime.remove( tcb );
+	realtime.leave( tcb );
+	policy.onAdd( tcb );
+	if ( !ready )
+	    policy.onBlock( tcb );
+	endQuantum( tcb );
+    }
+
+    // End the current job of a reserved TCB; returns the ms until its next
+    // release, -1 if it has no reservation
+    public synchronized long completeJob( TCB tcb ) {
+	Reservation r = tcb.getReservation( );
+	return ( r != null ) ? r.complete( System.currentTimeMillis( ) ) : -1;
+    }
+
+    // Make the TCB with the earliest deadline, or else the one the policy
+    // picks, the running one, so that it can no longer be stolen; null if
+    // there is none
+    private synchronized TCB pickNext( ) {
+	TCB tcb = realtime.pickNext( System.currentTimeMillis( ) );
+	if ( tcb == null )
+	    tcb = policy.pickNext( );
+	if ( tcb != null ) {
+	    running = tcb;
+	    preempted = false;
+	}
+	return tcb;
+    }
+
+    // Wait until this CPU has a TCB, stealing one if the queues are empty,
+    // and return it. An idle CPU blocks rather than spinning; add( ) and
+    // kick( ) wake it up, and so does the next release of a real-time
+    // thread waiting for its budget.
+    private TCB nextThread( ) {
+	while ( true ) {
+	    TCB tcb = pickNext( );
+	    if ( tcb != null )
+		return tcb;
+	    synchronized ( this ) {
+		idle = true;
+		kicked = false;
+	    }
+	    if ( scheduler.steal( this ) ) {
+		steals++;
+	    } else {
+		synchronized ( this ) {
+		    long release = realtime.getNextRelease( );
+		    while ( !kicked ) {
+			long left = release - System.currentTimeMillis( );
+			if ( release >= 0 && left <= 0 )
+			    break;
+			try {
+			    wait( ( release >= 0 ) ? left : 0 );
+			} catch ( InterruptedException e ) { }
+		    }
+		}
+	    }
+	    synchronized ( this ) {
+		idle = false;
+	    }
+	}
+    }
+
+    // Sleep for a quantum, or less if the running thread blocks or is
+    // preempted; returns whether the whole quantum was used
+    private synchronized boolean dispatcherSleep( int quantum ) {
+	long deadline = System.currentTimeMillis( ) + quantum;
+	long left = quantum;
+	while ( !preempted && left > 0 ) {
+	    try {
+		wait( left );
+	    } catch ( InterruptedException e ) {
+	    }
+	    left = deadline - System.currentTimeMillis( );
+	}
+	boolean expired = !preempted;
+	preempted = false;
+	return expired;
+    }
+
+    public void run( ) {
+	Thread current = null;
+
+	this.setPriority( 6 );
+
+	while ( true ) {
+	    try {
+		// get the next TCB and its thread
+		TCB currentTCB = nextThread( );
+		current = currentTCB.getThread( );
+		contextSwitches++;
+		currentTCB.grant( );
+		if ( current != null && current.getState( ) == Thread.State.NEW ) {
+		    // Spawn must be controlled by Scheduler
+		    // Scheduler must start a new thread
+		    current.start( );
+		}
+
+		int slice, quantum;
+		synchronized ( this ) {
+		    slice = scheduler.getTimeSlice( currentTCB, getLoad( ) );
+		    if ( currentTCB.getReservation( ) != null )
+			slice = quantum = realtime.getQuantum( currentTCB );
+		    else
+			quantum = policy.getQuantum( currentTCB, slice );
+		    // up to the next release of a real-time thread
+		    long release = realtime.getNextRelease( );
+		    if ( release >= 0 )
+			quantum = ( int )Math.max( Math.min( quantum,
+			    release - System.currentTimeMillis( ) ), 1 );
+		}
+		scheduler.recordQuantum( quantum );
+		currentTCB.setQuantum( quantum );
+		long start = System.currentTimeMillis( );
+		boolean expired = dispatcherSleep( quantum );
+		scheduler.sample( currentTCB );
+		if ( !currentTCB.revoke( slice ) )
+		    overruns++;
+		int used = ( int )( System.currentTimeMillis( ) - start );
+		currentTCB.recordUsage( used, quantum );
+
+		boolean exited;
+		synchronized ( this ) {
+		    // requeue this TCB unless it blocked or exited meanwhile
+		    if ( currentTCB.getReservation( ) != null )
+			realtime.onQuantumEnd( currentTCB, used );
+		    else
+			policy.onQuantumEnd( currentTCB, used, expired );
+		    running = null;
+		    exited = currentTCB.getTerminated( );
+		}
+		if ( exited )
+		    scheduler.reapThread( currentTCB );
+	    } catch ( NullPointerException e3 ) { };
+	}
+    }
+}
@@ -1,6 +1,6 @@
 import java.io.*;
 
-public class Disk extends Thread {
+public class Disk extends Thread implements DiskMBean {
     public static final int blockSize = 512;
     private final int trackSize = 10;
     private final int transferTime = 20;
@@ -20,14 +20,16 @@ public class Disk extends Thread {
     private int currentBlockId;
     private int targetBlockId;
 
+    // statistics
+    private long accepted;              // when the current command was accepted
+    private volatile long reads = 0;
+    private volatile long writes = 0;
+    private volatile long syncs = 0;
+    private volatile long serviceTime = 0;      // ns, all commands
+    private volatile long maxServiceTime = 0;   // ns
+
     public Disk( int totalBlocks ) {
-	diskSize = ( totalBlocks > 0 ) ? totalBlocks : 1;
-	data = new byte[ diskSize * blockSize ];
-	command = IDLE;
-	readyBuffer = false;
-	buffer = null;
-	currentBlockId = 0;
-	targetBlockId = 0;
+	this( new byte[ ( ( totalBlocks > 0 ) ? totalBlocks : 1 ) * blockSize ] );
 	try {
 	    FileInputStream ifstream = new FileInputStream( "DISK" );
 	    int readableSize = ( ifstream.available( ) < data.length ) ?
@@ -41,6 +43,26 @@ public class Disk extends Thread {
 	}
     }
 
+    // A disk holding the given image, such as that of a Checkpoint,
+    // instead of the contents of the DISK file
+    public Disk( byte image[] ) {
+	diskSize = image.length / blockSize;
+	data = image;
+	command = IDLE;
+	readyBuffer = false;
+	buffer = null;
+	currentBlockId = 0;
+	targetBlockId = 0;
+    }
+
+    // A copy of the disk's contents. The caller must own the Kernel's
+    // disk queue, so that no command is being served meanwhile.
+    public synchronized byte[] getImage( ) {
+	byte image[] = new byte[ data.length ];
+	System.arraycopy( data, 0, image, 0, data.length );
+	return image;
+    }
+
     public synchronized boolean read( int blockId, byte buffer[] ) {
 
 	if ( blockId < 0 || blockId > diskSize ) {
@@ -52,6 +74,7 @@ public class Disk extends Thread {
 	    this.buffer = buffer;
 	    targetBlockId = blockId;
 	    command = READ;
+	    accepted = System.nanoTime( );
 	    notify( );
 	    return true;
 	} else
@@ -69,6 +92,7 @@ public class Disk extends Thread {
 	    this.buffer = buffer;
 	    targetBlockId = blockId;
 	    command = WRITE;
+	    accepted = System.nanoTime( );
 	    notify( );
 	    return true;
 	} else
@@ -79,6 +103,7 @@ public class Disk extends Thread {
 	
 	if ( command == IDLE && readyBuffer == false ) {
 	    command = SYNC;
+	    accepted = System.nanoTime( );
 	    notify( );
 	    // System.out.println( "DISK sync notified the disk" );
 	    return true;
@@ -124,11 +149,54 @@ public class Disk extends Thread {
     }
 
     private synchronized void finishCommand( ) {
+	long elapsed = System.nanoTime( ) - accepted;
+	switch ( command ) {
+	case READ:
+	    reads++;
+	    break;
+	case WRITE:
+	    writes++;
+	    break;
+	case SYNC:
+	    syncs++;
+	    break;
+	}
+	serviceTime += elapsed;
+	maxServiceTime = Math.max( maxServiceTime, elapsed );
 	command = IDLE;
 	readyBuffer = true;
 	SysLib.disk( ); // a disk interrupt
     }
 
+    public long getRequests( ) {
+	return reads + writes + syncs;
+    }
+
+    public long getReads( ) {
+	return reads;
+    }
+
+    public long getWrites( ) {
+	return writes;
+    }
+
+    public long getSyncs( ) {
+	return syncs;
+    }
+
+    public double getAverageServiceTime( ) {
+	long requests = getRequests( );
+	return ( requests > 0 ) ? serviceTime / 1e6 / requests : 0;
+    }
+
+    public double getMaxServiceTime( ) {
+	return maxServiceTime / 1e6;
+    }
+
+    public int getDiskSize( ) {
+	return diskSize;
+    }
+
     public void run ( ) {
 	
 	while ( true ) {
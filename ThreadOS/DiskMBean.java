@@ -0,0 +1,10 @@
+// The Disk as seen through JMX (ThreadOS:type=Disk)
+public interface DiskMBean {
+    public long getRequests( );             // commands served
+    public long getReads( );
+    public long getWrites( );
+    public long getSyncs( );
+    public double getAverageServiceTime( ); // ms from accept to finish
+    public double getMaxServiceTime( );     // ms
+    public int getDiskSize( );              // blocks
+}
@@ -0,0 +1,173 @@
+import java.util.*;
+
+// The Kernel's disk request queue. A thread must own the disk to issue a
+// RAWREAD, RAWWRITE or SYNC, and ownership is handed out by I/O class
+// rather than in arrival order, in the manner of Linux's ionice:
+//
+//   CLASS_REALTIME     served first; levels 0 (highest) to 7
+//   CLASS_BEST_EFFORT  the default; levels 0 (highest) to 7, default 4
+//   CLASS_IDLE         served only when no other request is waiting
+//
+// Requests of the same class and level are served first come first served.
+// An idle request also waits until no other request has finished for
+// IDLE_GRACE milliseconds, so that a thread issuing back-to-back requests
+// does not lose the disk to the idle class between two of them.
+//
+// A request made on behalf of a thread moves up when the thread is lent a
+// higher I/O priority while it waits (see rerank( )).
+public class DiskQueue {
+    public final static int CLASS_REALTIME = 1;
+    public final static int CLASS_BEST_EFFORT = 2;
+    public final static int CLASS_IDLE = 3;
+
+    public final static int LEVELS = 8;
+    public final static int DEFAULT_LEVEL = 4;
+
+    private final static long IDLE_GRACE = 10; // ms
+
+    // A request waiting for the disk
+    private static class Request {
+	boolean granted = false;
+	TCB owner;                  // the thread waiting, if known
+
+	Request( TCB owner ) {
+	    this.owner = owner;
+	}
+    }
+
+    // waiting[rank]: realtime levels, then best-effort levels
+    private LinkedList<Request> waiting[];
+    private boolean busy = false;   // the disk is owned by a request
+    private boolean idleOwner = false; // ... and that request is idle class
+    private int depth = 0;          // # realtime and best-effort waiting
+    private int idleDepth = 0;      // # idle waiting
+    private long lastActive = 0;    // when a non-idle request last finished
+
+    @SuppressWarnings( "unchecked" ) // no arrays of a generic type
+    public DiskQueue( ) {
+	waiting = ( LinkedList<Request>[] )new LinkedList<?>[LEVELS * 2];
+	for ( int i = 0; i < waiting.length; i++ )
+	    waiting[i] = new LinkedList<Request>( );
+    }
+
+    public static boolean isValid( int ioClass, int level ) {
+	return ( ioClass == CLASS_REALTIME || ioClass == CLASS_BEST_EFFORT
+		 || ioClass == CLASS_IDLE ) && level >= 0 && level < LEVELS;
+    }
+
+    // The order in which requests are served, lowest first
+    public static int rank( int ioClass, int level ) {
+	if ( ioClass == CLASS_IDLE )
+	    return LEVELS * 2;
+	return ( ioClass == CLASS_REALTIME ) ? level : LEVELS + level;
+    }
+
+    // Block until the calling thread owns the disk
+    public void acquire( int ioClass, int level ) {
+	acquire( ioClass, level, null );
+    }
+
+    // ... on behalf of the given thread, at its I/O priority
+    public void acquire( TCB owner ) {
+	acquire( owner.getIoClass( ), owner.getIoLevel( ), owner );
+    }
+
+    private void acquire( int ioClass, int level, TCB owner ) {
+	if ( ioClass == CLASS_IDLE ) {
+	    if ( acquireIdle( owner ) )
+		return;
+	    ioClass = owner.getIoClass( ); // lent a higher class meanwhile
+	    level = owner.getIoLevel( );
+	}
+	Request request = new Request( owner );
+	synchronized ( this ) {
+	    if ( !busy ) {
+		busy = true;
+		idleOwner = false;
+		return;
+	    }
+	    waiting[rank( ioClass, level )].addLast( request );
+	    depth++;
+	}
+	synchronized ( request ) {
+	    while ( !request.granted ) {
+		try {
+		    request.wait( );
+		} catch ( InterruptedException e ) { }
+	    }
+	}
+    }
+
+    // Idle requests go only to a disk nobody else has used for a while.
+    // Returns false, without the disk, if the owner was lent a higher
+    // class while waiting.
+    private synchronized boolean acquireIdle( TCB owner ) {
+	idleDepth++;
+	while ( true ) {
+	    if ( owner != null && owner.getIoClass( ) != CLASS_IDLE ) {
+		idleDepth--;
+		return false;
+	    }
+	    long quiet = System.currentTimeMillis( ) - lastActive;
+	    if ( !busy && depth == 0 && quiet >= IDLE_GRACE )
+		break;
+	    try {
+		if ( !busy && depth == 0 )
+		    wait( IDLE_GRACE - quiet );
+		else
+		    wait( );
+	    } catch ( InterruptedException e ) { }
+	}
+	idleDepth--;
+	busy = true;
+	idleOwner = true;
+	return true;
+    }
+
+    // Move the request a thread has waiting up to the thread's current I/O
+    // priority, if that is higher
+    public synchronized void rerank( TCB owner ) {
+	if ( idleDepth > 0 )
+	    notifyAll( ); // an idle request may have to leave its class
+	int rank = rank( owner.getIoClass( ), owner.getIoLevel( ) );
+	for ( int i = rank + 1; i < waiting.length; i++ ) {
+	    for ( Iterator<Request> j = waiting[i].iterator( ); j.hasNext( ); ) {
+		Request request = j.next( );
+		if ( request.owner == owner ) {
+		    j.remove( );
+		    waiting[rank].addLast( request );
+		    return;
+		}
+	    }
+	}
+    }
+
+    // Give the disk to the highest-ranked waiting request, if any
+    public void release( ) {
+	Request next = null;
+	synchronized ( this ) {
+	    if ( !idleOwner )
+		lastActive = System.currentTimeMillis( );
+	    for ( int i = 0; i < waiting.length && next == null; i++ )
+		if ( waiting[i].size( ) > 0 )
+		    next = waiting[i].removeFirst( );
+	    if ( next == null ) {
+		busy = false;
+		if ( idleDepth > 0 )
+		    notifyAll( ); // idle requests start counting the grace
+		return;
+	    }
+	    depth--;
+	    idleOwner = false;
+	}
+	synchronized ( next ) {
+	    next.granted = true;
+	    next.notify( );
+	}
+    }
+
+    // The number of requests waiting for the disk
+    public synchronized int getDepth( ) {
+	return depth + idleDepth;
+    }
+}
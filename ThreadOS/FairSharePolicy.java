@@ -0,0 +1,186 @@
+import java.util.*;
+
+// Hierarchical fair share. The CPU is shared among thread groups first,
+// a group being a program loaded from the top-level thread and everything
+// it spawns (see TCB), in proportion to the groups' weights, and each
+// group's share among its threads in proportion to their tickets. A
+// program that fans out into fifty threads thus gets no more of the CPU
+// than one that runs a single thread.
+//
+// Both levels are stride scheduled (see StridePolicy): the group with the
+// lowest pass runs, its thread with the lowest pass within the group, and
+// for each ms it runs the group's pass goes up by STRIDE1 / weight and the
+// thread's by STRIDE1 / tickets. A group's weight is the tickets its first
+// program was exec'ed with.
+public class FairSharePolicy implements SchedulingPolicy {
+
+    // A thread group on this CPU
+    private static class Group {
+	int gid;
+	long pass = 0;
+	long threadPass = 0;        // pass of its thread dispatched last
+	TreeSet<TCB> ready = new TreeSet<TCB>( StridePolicy.BY_PASS );
+	int members = 0;            // # TCBs on this CPU, ready or not
+
+	Group( int gid ) {
+	    this.gid = gid;
+	}
+    }
+
+    // groups with ready TCBs by pass, then gid; a group's pass only
+    // changes while it is not in the set
+    private TreeSet<Group> active = new TreeSet<Group>( new Comparator<Group>( ) {
+	    public int compare( Group a, Group b ) {
+		if ( a.pass != b.pass )
+		    return ( a.pass < b.pass ) ? -1 : 1;
+		return a.gid - b.gid;
+	    }
+	} );
+    private HashMap<Integer, Group> groups = new HashMap<Integer, Group>( );
+    private long pass = 0;          // the pass of the group dispatched last
+    private int size = 0;
+
+    public String getName( ) {
+	return "fair";
+    }
+
+    // A TCB joins this CPU; neither it nor its group make up for time
+    // spent blocked or elsewhere
+    public void onAdd( TCB tcb ) {
+	Group g = groups.get( tcb.getGid( ) );
+	if ( g == null ) {
+	    g = new Group( tcb.getGid( ) );
+	    groups.put( g.gid, g );
+	}
+	g.members++;
+	ready( g, tcb );
+    }
+
+    public void onWake( TCB tcb ) {
+	Group g = groups.get( tcb.getGid( ) );
+	if ( g == null )
+	    onAdd( tcb );
+	else
+	    ready( g, tcb );
+    }
+
+    private void ready( Group g, TCB tcb ) {
+	if ( g.ready.isEmpty( ) ) {
+	    if ( g.pass < pass )
+		g.pass = pass;
+	    active.add( g );
+	}
+	if ( tcb.getPass( ) < g.threadPass )
+	    tcb.setPass( g.threadPass );
+	g.ready.add( tcb );
+	size++;
+    }
+
+    public boolean onBlock( TCB tcb ) {
+	Group g = groups.get( tcb.getGid( ) );
+	if ( g == null || !g.ready.contains( tcb ) )
+	    return false;
+	boolean activeGroup = active.remove( g );
+	g.ready.remove( tcb );
+	size--;
+	if ( activeGroup && !g.ready.isEmpty( ) )
+	    active.add( g );
+	return true;
+    }
+
+    // A TCB leaves this CPU for good, as does its group with its last one
+    private void leave( TCB tcb ) {
+	Group g = groups.get( tcb.getGid( ) );
+	if ( g != null && --g.members == 0 ) {
+	    active.remove( g );
+	    groups.remove( g.gid );
+	}
+    }
+
+    public void onExit( TCB tcb ) {
+	onBlock( tcb );
+	leave( tcb );
+    }
+
+    public TCB pickNext( ) {
+	if ( active.isEmpty( ) )
+	    return null;
+	Group g = active.first( );
+	pass = g.pass;
+	TCB tcb = g.ready.first( );
+	g.threadPass = tcb.getPass( );
+	return tcb;
+    }
+
+    public int getQuantum( TCB tcb, int timeSlice ) {
+	return timeSlice;
+    }
+
+    // Charge the TCB and its group for the time it ran, at least a ms
+    public void onQuantumEnd( TCB tcb, int used, boolean expired ) {
+	Group g = groups.get( tcb.getGid( ) );
+	if ( g == null )
+	    return;
+	long ms = Math.max( used, 1 );
+	boolean activeGroup = active.remove( g );
+	boolean held = g.ready.remove( tcb );
+	g.pass += StridePolicy.STRIDE1 / Math.max( tcb.getGroupWeight( ), 1 ) * ms;
+	tcb.setPass( tcb.getPass( ) + StridePolicy.STRIDE1 / tcb.getTickets( ) * ms );
+	if ( held )
+	    g.ready.add( tcb );
+	if ( activeGroup )
+	    active.add( g );
+    }
+
+    // Lent tickets and group weight make the TCB's stride and that of its
+    // group, while it runs, shorter from its next quantum on
+    public boolean lend( TCB holder, TCB waiter ) {
+	return holder.lendCpuPriority( waiter );
+    }
+
+    public void unlend( TCB holder ) {
+	holder.returnCpuPriority( );
+    }
+
+    public boolean preempts( TCB tcb, TCB running ) {
+	return false;
+    }
+
+    // A TCB of the group furthest ahead, which would have been run last
+    public TCB takeReady( TCB running ) {
+	for ( Iterator<Group> i = active.descendingIterator( ); i.hasNext( ); ) {
+	    Group g = i.next( );
+	    for ( Iterator<TCB> j = g.ready.descendingIterator( ); j.hasNext( ); ) {
+		TCB tcb = j.next( );
+		if ( tcb != running ) {
+		    j.remove( );
+		    size--;
+		    if ( g.ready.isEmpty( ) )
+			i.remove( );
+		    leave( tcb );
+		    return tcb;
+		}
+	    }
+	}
+	return null;
+    }
+
+    public void boost( ) {
+    }
+
+    public int size( ) {
+	return size;
+    }
+
+    // The groups with TCBs on this CPU, and how many TCBs they count
+    public int getGroups( ) {
+	return groups.size( );
+    }
+
+    public int getMembers( ) {
+	int members = 0;
+	for ( Group g : groups.values( ) )
+	    members += g.members;
+	return members;
+    }
+}
@@ -0,0 +1,121 @@
+// Multi-level feedback queues, a RunQueue per level. The first TCB of the
+// highest non-empty level runs for timeSlice << level; a TCB that uses up
+// its quantum drops a level, one that wakes up rises one, and either way
+// it goes to the end of its level. A TCB arriving at a higher level than
+// the running one preempts it, and boost( ) returns every TCB to level 0.
+// With a single level this is round robin.
+public class FeedbackPolicy implements SchedulingPolicy {
+    private RunQueue queues[];      // ready TCBs, by level; running included
+
+    public FeedbackPolicy( int levels ) {
+	queues = new RunQueue[ ( levels > 0 ) ? levels : 1 ];
+	for ( int i = 0; i < queues.length; i++ )
+	    queues[i] = new RunQueue( );
+    }
+
+    public String getName( ) {
+	return ( queues.length == 1 ) ? "rr" : "mlfq";
+    }
+
+    public int getLevels( ) {
+	return queues.length;
+    }
+
+    // A new or migrated TCB keeps its level
+    public void onAdd( TCB tcb ) {
+	int level = Math.min( tcb.getLevel( ), queues.length - 1 );
+	tcb.setLevel( level );
+	queues[level].add( tcb );
+    }
+
+    // ... and a woken one rises a level, since it gave up the CPU to wait
+    public void onWake( TCB tcb ) {
+	int level = Math.min( Math.max( tcb.getLevel( ) - 1, 0 ), queues.length - 1 );
+	tcb.setLevel( level );
+	queues[level].add( tcb );
+    }
+
+    public boolean onBlock( TCB tcb ) {
+	return queues[tcb.getLevel( )].remove( tcb );
+    }
+
+    public void onExit( TCB tcb ) {
+	queues[tcb.getLevel( )].remove( tcb );
+    }
+
+    public TCB pickNext( ) {
+	for ( int i = 0; i < queues.length; i++ ) {
+	    TCB tcb = queues[i].peek( );
+	    if ( tcb != null )
+		return tcb;
+	}
+	return null;
+    }
+
+    public int getQuantum( TCB tcb, int timeSlice ) {
+	return timeSlice << tcb.getLevel( );
+    }
+
+    // Rotate the TCB to the end unless it blocked meanwhile, a level down
+    // if it used up its quantum, but not below a level lent to it
+    public void onQuantumEnd( TCB tcb, int used, boolean expired ) {
+	int level = tcb.getLevel( );
+	if ( queues[level].remove( tcb ) ) {
+	    if ( expired && level < queues.length - 1 &&
+		 level < tcb.getLentRunLevel( ) )
+		level++;
+	    tcb.setLevel( level );
+	    queues[level].add( tcb );
+	}
+    }
+
+    // A TCB lent a higher level moves up to it at once
+    public boolean lend( TCB holder, TCB waiter ) {
+	boolean raised = holder.lendCpuPriority( waiter );
+	int level = holder.getLevel( );
+	if ( level > holder.getLentRunLevel( ) ) {
+	    boolean held = queues[level].remove( holder );
+	    holder.setLevel( holder.getLentRunLevel( ) );
+	    if ( held )
+		queues[holder.getLevel( )].add( holder );
+	}
+	return raised;
+    }
+
+    // ... and drops again as it uses up its quanta
+    public void unlend( TCB holder ) {
+	holder.returnCpuPriority( );
+    }
+
+    public boolean preempts( TCB tcb, TCB running ) {
+	return running != null && running.getLevel( ) > tcb.getLevel( );
+    }
+
+    // The last TCB of the lowest non-empty level, which would have been
+    // run last
+    public TCB takeReady( TCB running ) {
+	for ( int level = queues.length - 1; level >= 0; level-- ) {
+	    TCB tcb = queues[level].pollLast( running );
+	    if ( tcb != null )
+		return tcb;
+	}
+	return null;
+    }
+
+    // Return every TCB to level 0, keeping their order
+    public void boost( ) {
+	for ( int level = 1; level < queues.length; level++ ) {
+	    TCB tcbs[] = queues[level].toArray( );
+	    for ( int i = 0; i < tcbs.length; i++ )
+		tcbs[i].setLevel( 0 );
+	    queues[level].drainTo( queues[0] );
+	}
+    }
+
+    public int size( ) {
+	int size = 0;
+	for ( int i = 0; i < queues.length; i++ )
+	    size += queues[i].size( );
+	return size;
+    }
+}
@@ -4,6 +4,7 @@ public class FileTableEntry {  // Each table entry should have
     public final short iNumber;//    this inode number
     public int count;          //    a count to maintain #threads sharing this
     public final String mode;  //    "r", "w", "w+", or "a"
+    public TCB owner;          //    the thread that opened it, if known
     FileTableEntry ( Inode i, short inumber, String m ) {
 	    seekPtr = 0;           // the seek pointer is set to the file top.
 	    inode = i;
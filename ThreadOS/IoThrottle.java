@@ -0,0 +1,31 @@
+// A token bucket limiting a rate, such as disk operations or bytes per
+// second. The bucket holds up to one second's worth of tokens. A request
+// may take more tokens than the bucket holds, leaving it in debt; the
+// caller then has to wait until the debt would have been paid off.
+public class IoThrottle {
+    private long rate;      // tokens per second
+    private double tokens;  // tokens available, negative while in debt
+    private long last;      // System.nanoTime( ) of the last refill
+
+    public IoThrottle( long rate ) {
+	this.rate = rate;
+	tokens = rate;
+	last = System.nanoTime( );
+    }
+
+    public synchronized long getRate( ) {
+	return rate;
+    }
+
+    // Take amount tokens and return how many nanoseconds the caller must
+    // wait before going ahead, 0 if it may go ahead now
+    public synchronized long reserve( long amount ) {
+	long now = System.nanoTime( );
+	tokens = Math.min( rate, tokens + ( now - last ) * ( double )rate / 1e9 );
+	last = now;
+	tokens -= amount;
+	if ( tokens >= 0 )
+	    return 0;
+	return ( long )( -tokens * 1e9 / rate );
+    }
+}
@@ -0,0 +1,117 @@
+import java.util.*;
+
+// A snapshot of the Kernel's counters returned by SysLib.stats( ), in the
+// spirit of /proc. Each figure is read from a counter its subsystem keeps
+// anyway, one subsystem at a time, so the snapshot is cheap to take but not
+// atomic as a whole.
+public class KernelStats {
+
+    // Thread states
+    public final static String RUNNING    = "running";
+    public final static String READY      = "ready";
+    public final static String BLOCKED    = "blocked";
+    public final static String TERMINATED = "terminated";
+
+    // One TCB
+    public static class ThreadStat {
+	public int tid;
+	public int pid;
+	public int gid;                 // thread group
+	public int level;               // scheduler feedback level
+	public int cpu;                 // CPU queued on or last run on
+	public int tickets;             // share under lottery and stride
+	public String state;
+	public long throttledTime;      // ms held back by disk limits
+
+	public String toString( ) {
+	    return String.format( "%6d %6d %6d %5d %3d %7d  %-10s %8d",
+				  tid, pid, gid, level, cpu, tickets, state,
+				  throttledTime );
+	}
+    }
+
+    public long uptime;                 // ms since BOOT
+    public long bootTime;               // ms the BOOT took
+
+    // Scheduler
+    public String policy;               // scheduling policy
+    public int runQueueLength;          // TCBs in the run queue
+    public ThreadStat threads[];        // every live TCB
+    public int sleeping;                // threads parked on the timer wheel
+    public long contextSwitches;        // dispatches on all CPUs
+    public long overruns;               // quanta run past without a safepoint
+    public int latency;                 // adaptive period, 0 if fixed
+    public int lastQuantum;             // ms of the last quantum given
+    public double averageQuantum;       // ... and of all since boot
+    public int threadGroups;            // groups on a CPU, under fair
+    public int groupMembers;            // ... and the TCBs they count
+
+    // EXEC admission control
+    public int admitted;                // threads holding a slot
+    public int execPending;             // exec calls waiting for a slot
+    public long execWaits;              // exec calls that had to wait
+    public long execWaitTime;           // ms waited by admitted exec calls
+    public long execRejected;           // exec calls refused or timed out
+
+    // File system
+    public int openFiles;               // FileTable entries
+    public int freeBlocks;              // Superblock free blocks, -1 if not kept
+
+    // Cache
+    public long cacheHits;
+    public long cacheMisses;
+
+    // Disk
+    public int diskQueueDepth;          // requests waiting for the disk
+    public long syncRequests;           // SYNC calls
+    public long syncFlushes;            // flushes they cost
+
+    // System calls, indexed by their number in Kernel
+    public long syscalls[];
+
+    private final static String SYSCALL_NAMES[] = {
+	"boot", "exec", "wait", "exit", "sleep", "rawread", "rawwrite",
+	"sync", "read", "write", "cread", "cwrite", "csync", "cflush",
+	"open", "close", "size", "seek", "format", "delete", "waitpid",
+	"ionice", "iolimit", "stats", "profile", "checkpoint", "yield",
+	"metrics", "realtime", "nextperiod"
+    };
+
+    public String toString( ) {
+	StringBuffer buf = new StringBuffer( );
+	buf.append( "uptime:          " + uptime + " ms (boot " + bootTime + " ms)\n" );
+	buf.append( "run queue:       " + runQueueLength + " (" + policy + ")\n" );
+	buf.append( "sleeping:        " + sleeping + "\n" );
+	if ( policy != null && policy.equals( "fair" ) )
+	    buf.append( "thread groups:   " + threadGroups + " (" +
+			groupMembers + " members)\n" );
+	buf.append( "dispatches:      " + contextSwitches +
+		    " (" + overruns + " overrun)\n" );
+	buf.append( "quanta:          " +
+		    ( latency > 0 ? "adaptive, " + latency + " ms period"
+				  : "fixed" ) +
+		    String.format( ", last %d ms, average %.1f ms\n",
+				   lastQuantum, averageQuantum ) );
+	buf.append( "exec:            " + admitted + " admitted, " + execPending +
+		    " pending, " + execWaits + " waited " + execWaitTime +
+		    " ms, " + execRejected + " rejected\n" );
+	buf.append( "open files:      " + openFiles + "\n" );
+	buf.append( "free blocks:     " +
+		    ( freeBlocks < 0 ? "not counted" : "" + freeBlocks ) + "\n" );
+	buf.append( "cache:           " + cacheHits + " hits, " + cacheMisses +
+		    " misses\n" );
+	buf.append( "disk queue:      " + diskQueueDepth + "\n" );
+	buf.append( "sync:            " + syncRequests + " requests, " +
+		    syncFlushes + " flushes\n" );
+	buf.append( "syscalls:       " );
+	for ( int i = 0; syscalls != null && i < syscalls.length; i++ )
+	    if ( syscalls[i] > 0 )
+		buf.append( " " + ( i < SYSCALL_NAMES.length ?
+				    SYSCALL_NAMES[i] : "#" + i ) +
+			    "=" + syscalls[i] );
+	buf.append( "\n   tid    pid    gid level cpu tickets  state      throttled\n" );
+	for ( int i = 0; threads != null && i < threads.length; i++ )
+	    buf.append( threads[i] + "\n" );
+	return buf.toString( );
+    }
+}
@@ -0,0 +1,94 @@
+import java.util.*;
+
+// Lottery scheduling: every quantum goes to a ticket drawn at random from
+// those of the ready TCBs, so that over time each thread gets CPU time in
+// proportion to its tickets. Drawing walks the ready TCBs, O(n).
+public class LotteryPolicy implements SchedulingPolicy {
+    private ArrayList<TCB> ready = new ArrayList<TCB>( ); // running included
+    private long totalTickets = 0;
+    private Random random = new Random( );
+
+    public String getName( ) {
+	return "lottery";
+    }
+
+    public void onAdd( TCB tcb ) {
+	ready.add( tcb );
+	totalTickets += tcb.getTickets( );
+    }
+
+    public void onWake( TCB tcb ) {
+	onAdd( tcb );
+    }
+
+    public boolean onBlock( TCB tcb ) {
+	if ( !ready.remove( tcb ) )
+	    return false;
+	totalTickets -= tcb.getTickets( );
+	return true;
+    }
+
+    public void onExit( TCB tcb ) {
+	onBlock( tcb );
+    }
+
+    public TCB pickNext( ) {
+	if ( ready.isEmpty( ) )
+	    return null;
+	long winner = ( long )( random.nextDouble( ) * totalTickets );
+	for ( int i = 0; i < ready.size( ); i++ ) {
+	    TCB tcb = ready.get( i );
+	    winner -= tcb.getTickets( );
+	    if ( winner < 0 )
+		return tcb;
+	}
+	return ready.get( ready.size( ) - 1 );
+    }
+
+    public int getQuantum( TCB tcb, int timeSlice ) {
+	return timeSlice;
+    }
+
+    // Every draw is independent of the last
+    public void onQuantumEnd( TCB tcb, int used, boolean expired ) {
+    }
+
+    // Lent tickets count from the next draw on
+    public boolean lend( TCB holder, TCB waiter ) {
+	boolean held = onBlock( holder );
+	boolean raised = holder.lendCpuPriority( waiter );
+	if ( held )
+	    onAdd( holder );
+	return raised;
+    }
+
+    public void unlend( TCB holder ) {
+	boolean held = onBlock( holder );
+	holder.returnCpuPriority( );
+	if ( held )
+	    onAdd( holder );
+    }
+
+    public boolean preempts( TCB tcb, TCB running ) {
+	return false;
+    }
+
+    public TCB takeReady( TCB running ) {
+	for ( int i = ready.size( ) - 1; i >= 0; i-- ) {
+	    TCB tcb = ready.get( i );
+	    if ( tcb != running ) {
+		ready.remove( i );
+		totalTickets -= tcb.getTickets( );
+		return tcb;
+	    }
+	}
+	return null;
+    }
+
+    public void boost( ) {
+    }
+
+    public int size( ) {
+	return ready.size( );
+    }
+}
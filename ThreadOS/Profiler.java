@@ -0,0 +1,126 @@
+import java.io.*;
+import java.util.*;
+
+// A sampling profiler for user threads. Each sample takes the stack of a
+// thread holding a CPU, either at every quantum boundary (the Scheduler
+// calls sample( ) just before rotating) or, if a rate is given, every rate
+// ms from a sampler thread of its own. Stacks are aggregated in collapsed
+// form, one line per distinct stack:
+//
+//      Test2;Thread.run;Test2.run;SysLib.join;Kernel.interrupt 42
+//
+// with the program name as the root frame, which is the input expected by
+// flamegraph.pl and similar tools.
+public class Profiler extends Thread {
+    private Scheduler scheduler;
+    private int rate;                   // ms between samples, 0 at quanta
+    private HashMap<String, Long> stacks = new HashMap<String, Long>( );
+    private long samples = 0;
+
+    public Profiler( Scheduler scheduler, int rate ) {
+	this.scheduler = scheduler;
+	this.rate = rate;
+	setDaemon( true );
+    }
+
+    // Whether samples are taken at quantum boundaries by the Scheduler
+    public boolean atQuantum( ) {
+	return rate == 0;
+    }
+
+    // Record where the given thread is now; a thread that is parked or
+    // waiting on a queue burns no CPU and is not sampled
+    public void sample( TCB tcb ) {
+	if ( tcb == null || tcb.getBlocked( ) || tcb.getTerminated( ) )
+	    return;
+	Thread thread = tcb.getThread( );
+	if ( thread == null || thread.getState( ) != Thread.State.RUNNABLE )
+	    return;
+	StackTraceElement frames[] = thread.getStackTrace( );
+	if ( frames.length == 0 )
+	    return;
+	StringBuffer stack = new StringBuffer( tcb.getProgram( ) );
+	for ( int i = frames.length - 1; i >= 0; i-- ) {
+	    String className = frames[i].getClassName( );
+	    stack.append( ';' );
+	    stack.append( className.substring( className.lastIndexOf( '.' ) + 1 ) );
+	    stack.append( '.' );
+	    stack.append( frames[i].getMethodName( ) );
+	}
+	String key = stack.toString( );
+	synchronized ( this ) {
+	    Long count = stacks.get( key );
+	    stacks.put( key, ( count == null ) ? 1 : count + 1 );
+	    samples++;
+	}
+    }
+
+    public synchronized long getSamples( ) {
+	return samples;
+    }
+
+    // Write the collapsed stacks to a file; returns the number of lines
+    public int dump( String fileName ) throws IOException {
+	HashMap<String, Long> taken;
+	synchronized ( this ) {
+	    taken = new HashMap<String, Long>( stacks );
+	}
+	return write( fileName, taken );
+    }
+
+    // Write the collapsed stacks and start over in one step, swapping in an
+    // empty table so that a sample taken meanwhile goes to the next dump;
+    // if the file cannot be written the stacks are put back
+    public int dumpAndReset( String fileName ) throws IOException {
+	HashMap<String, Long> taken;
+	long takenSamples;
+	synchronized ( this ) {
+	    taken = stacks;
+	    takenSamples = samples;
+	    stacks = new HashMap<String, Long>( );
+	    samples = 0;
+	}
+	try {
+	    return write( fileName, taken );
+	} catch ( IOException e ) {
+	    synchronized ( this ) {
+		for ( Map.Entry<String, Long> t : taken.entrySet( ) ) {
+		    Long count = stacks.get( t.getKey( ) );
+		    stacks.put( t.getKey( ), ( count == null ) ? t.getValue( )
+				: count + t.getValue( ) );
+		}
+		samples += takenSamples;
+	    }
+	    throw e;
+	}
+    }
+
+    private static int write( String fileName, HashMap<String, Long> taken )
+	throws IOException {
+	ArrayList<String> lines = new ArrayList<String>( );
+	for ( Map.Entry<String, Long> e : taken.entrySet( ) )
+	    lines.add( e.getKey( ) + " " + e.getValue( ) );
+	Collections.sort( lines );
+	PrintWriter out = new PrintWriter( new FileWriter( fileName ) );
+	for ( int i = 0; i < lines.size( ); i++ )
+	    out.println( lines.get( i ) );
+	out.close( );
+	return lines.size( );
+    }
+
+    public synchronized void reset( ) {
+	stacks.clear( );
+	samples = 0;
+    }
+
+    public void run( ) {
+	while ( true ) {
+	    try {
+		Thread.sleep( rate );
+	    } catch ( InterruptedException e ) { }
+	    TCB running[] = scheduler.getRunning( );
+	    for ( int i = 0; i < running.length; i++ )
+		sample( running[i] );
+	}
+    }
+}
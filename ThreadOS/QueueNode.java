@@ -0,0 +1,59 @@
+import java.util.*;
+
+// One condition of a SyncQueue: the threads sleeping on it and the
+// wakeups posted to it that nobody has taken yet.
+public class QueueNode {
+    private LinkedList<Integer> pidQueue; // wakeups not taken yet
+    int users = 0;                        // # SyncQueue callers holding this
+    private int selective = 0;            // # sleepers wanting given pids
+
+    public QueueNode( ) {
+	pidQueue = new LinkedList<Integer>( );
+    }
+
+    public synchronized int sleep( ) {
+	return sleep( null );
+    }
+
+    // Wait for a wakeup carrying one of the given values, any value if
+    // values is null or empty, and take it
+    public synchronized int sleep( int values[] ) {
+	if ( values == null || values.length == 0 ) {
+	    while ( pidQueue.size( ) == 0 ) {
+		try {
+		    wait( );
+		} catch ( InterruptedException e ) { }
+	    }
+	    return pidQueue.removeFirst( );
+	}
+	selective++;
+	try {
+	    while ( true ) {
+		for ( int i = 0; i < values.length; i++ )
+		    if ( pidQueue.remove( ( Integer )values[i] ) )
+			return values[i];
+		try {
+		    wait( );
+		} catch ( InterruptedException e ) { }
+	    }
+	} finally {
+	    selective--;
+	}
+    }
+
+    public synchronized void wakeup( int pid ) {
+	pidQueue.addLast( pid );
+	if ( selective > 0 )
+	    notifyAll( ); // the one notified might not want this pid
+	else
+	    notify( );
+    }
+
+    public synchronized boolean contains( int pid ) {
+	return pidQueue.contains( pid );
+    }
+
+    public synchronized boolean isEmpty( ) {
+	return pidQueue.isEmpty( );
+    }
+}
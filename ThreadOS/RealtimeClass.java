@@ -0,0 +1,109 @@
+import java.util.*;
+
+// The real-time scheduling class of a CPU. Threads with a Reservation are
+// kept here rather than by the CPU's SchedulingPolicy, stay on the CPU
+// they reserved, and are dispatched earliest deadline first ahead of every
+// other thread. A thread runs for at most the budget left in its period;
+// once that is spent it waits for its next release even if it is ready.
+//
+// A thread is admitted only if the densities of the reservations on the
+// CPU, its own included, add up to no more than the bound set with
+// -rtbound, so that EDF can meet every deadline and leave the rest of the
+// CPU to the other threads. Like the policy, this is guarded by the CPU's
+// monitor.
+public class RealtimeClass {
+    private ArrayList<TCB> members = new ArrayList<TCB>( ); // reserved here
+    private ArrayList<TCB> ready = new ArrayList<TCB>( );   // running included
+    private double density = 0;     // sum of the members' densities
+
+    // Reserve this CPU for a TCB, unless that would overload it
+    public boolean admit( TCB tcb, Reservation r, double bound ) {
+	double others = density;
+	Reservation old = tcb.getReservation( );
+	if ( old != null )
+	    others -= old.getDensity( );
+	if ( others + r.getDensity( ) > bound + 1e-9 )
+	    return false;
+	if ( old == null )
+	    members.add( tcb );
+	density = others + r.getDensity( );
+	tcb.setReservation( r );
+	return true;
+    }
+
+    // Drop a TCB's reservation
+    public void leave( TCB tcb ) {
+	Reservation r = tcb.getReservation( );
+	if ( r == null || !members.remove( tcb ) )
+	    return;
+	density -= r.getDensity( );
+	ready.remove( tcb );
+	tcb.setReservation( null );
+    }
+
+    public double getDensity( ) {
+	return density;
+    }
+
+    public void add( TCB tcb ) {
+	if ( !ready.contains( tcb ) )
+	    ready.add( tcb );
+    }
+
+    public boolean remove( TCB tcb ) {
+	return ready.remove( tcb );
+    }
+
+    public int size( ) {
+	return ready.size( );
+    }
+
+    // The ready TCB with the earliest deadline and some budget left, null
+    // if there is none
+    public TCB pickNext( long now ) {
+	TCB next = null;
+	for ( int i = 0; i < ready.size( ); i++ ) {
+	    TCB tcb = ready.get( i );
+	    Reservation r = tcb.getReservation( );
+	    r.update( now );
+	    if ( r.isEligible( ) && ( next == null || r.getDeadline( ) <
+				      next.getReservation( ).getDeadline( ) ) )
+		next = tcb;
+	}
+	return next;
+    }
+
+    // When a ready TCB that has spent its budget gets a new one, -1 if
+    // none is waiting for that
+    public long getNextRelease( ) {
+	long next = -1;
+	for ( int i = 0; i < ready.size( ); i++ ) {
+	    Reservation r = ready.get( i ).getReservation( );
+	    if ( !r.isEligible( ) && ( next < 0 || r.getNextRelease( ) < next ) )
+		next = r.getNextRelease( );
+	}
+	return next;
+    }
+
+    // Whether a TCB just made ready should take the CPU from the running
+    // one: always from a thread of another class, and from a real-time
+    // thread with a later deadline
+    public boolean preempts( TCB tcb, TCB running, long now ) {
+	Reservation r = tcb.getReservation( );
+	r.update( now );
+	if ( running == null || !r.isEligible( ) )
+	    return false;
+	Reservation other = running.getReservation( );
+	return other == null || !other.isEligible( ) ||
+	    r.getDeadline( ) < other.getDeadline( );
+    }
+
+    // How long a TCB may run now: what is left of its budget
+    public int getQuantum( TCB tcb ) {
+	return Math.max( tcb.getReservation( ).getRemaining( ), 1 );
+    }
+
+    public void onQuantumEnd( TCB tcb, int used ) {
+	tcb.getReservation( ).charge( used );
+    }
+}
@@ -0,0 +1,99 @@
+// The CPU reservation of a real-time thread, set with SysLib.realtime( ):
+// every period ms the thread releases a job that may run for budget ms
+// and should be done, by calling SysLib.nextPeriod( ), within deadline ms
+// of its release. A job that is not done by its deadline is a miss; one
+// still unfinished at the next release carries over into that period
+// with a fresh budget and deadline, and the job of every period that
+// passes whole before the thread gets back to it is a miss too. Times
+// are in ms of System.currentTimeMillis( ).
+//
+// A Reservation is guarded by the monitor of the CPU its thread is on.
+public class Reservation {
+    private int period;
+    private int budget;
+    private int deadline;           // relative to the release
+
+    private long release;           // start of the current period
+    private int remaining;          // ms of budget left in it
+    private boolean jobDone = false;  // waiting for the next release
+    private boolean jobMissed = false; // the current job's miss is counted
+    private long jobs = 1;
+    private long misses = 0;
+
+    public Reservation( int period, int budget, int deadline, long now ) {
+	this.period = period;
+	this.budget = budget;
+	this.deadline = deadline;
+	release = now;
+	remaining = budget;
+    }
+
+    public static boolean isValid( int period, int budget, int deadline ) {
+	return period > 0 && budget > 0 && deadline > 0 && budget <= deadline;
+    }
+
+    // The share of a CPU this reservation may need: budget over the
+    // shorter of deadline and period, which EDF can meet as long as the
+    // densities on a CPU add up to 1 at most
+    public double getDensity( ) {
+	return ( double )budget / Math.min( deadline, period );
+    }
+
+    public long getDeadline( ) {
+	return release + deadline;
+    }
+
+    public long getNextRelease( ) {
+	return release + period;
+    }
+
+    public int getRemaining( ) {
+	return remaining;
+    }
+
+    // Whether the thread may run now: its job is released and has budget
+    public boolean isEligible( ) {
+	return !jobDone && remaining > 0;
+    }
+
+    public long getJobs( ) {
+	return jobs;
+    }
+
+    public long getMisses( ) {
+	return misses;
+    }
+
+    // Start the period that has begun by now, if any, counting a miss if
+    // the job of the last one is not done, and one for each period skipped
+    // whole in between
+    public void update( long now ) {
+	if ( now < release + period )
+	    return;
+	if ( !jobDone && !jobMissed )
+	    misses++;
+	long periods = ( now - release ) / period;
+	misses += periods - 1;
+	release += periods * period;
+	jobs += periods;
+	remaining = budget;
+	jobDone = false;
+	jobMissed = false;
+    }
+
+    // The thread ran for used ms
+    public void charge( int used ) {
+	remaining -= Math.max( used, 1 );
+    }
+
+    // The thread's job is done; count a miss if it is late, and return how
+    // many ms are left until the next release
+    public long complete( long now ) {
+	update( now );
+	if ( now > release + deadline && !jobMissed )
+	    misses++;
+	jobDone = true;
+	jobMissed = true;
+	return Math.max( release + period - now, 0 );
+    }
+}
@@ -0,0 +1,119 @@
+// A first-come first-served queue of TCBs in a circular array, used for
+// each level of a CPU's run queues. Adding at the tail, taking the head,
+// and so rotating the head to the tail, are O(1). So is removing a TCB
+// from anywhere: the TCB is only marked as no longer queued, and its
+// slot is skipped when the head or the tail reaches it. The array doubles
+// when it is full of live TCBs and is compacted when it is mostly full of
+// removed ones.
+//
+// A TCB is on at most one RunQueue at a time. It remembers the queue and
+// the ticket of its slot, so a slot is live only if both still match.
+// RunQueue is not synchronized; its CPU's monitor guards it.
+public class RunQueue {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private TCB slots[] = new TCB[INITIAL_CAPACITY];
+    private long tickets[] = new long[INITIAL_CAPACITY];
+    private int head = 0;           // first occupied slot
+    private int used = 0;           // # occupied slots, live or not
+    private int size = 0;           // # live slots
+    private long nextTicket = 0;
+
+    public int size( ) {
+	return size;
+    }
+
+    private boolean isLive( int slot ) {
+	return slots[slot] != null && slots[slot].getRunQueue( ) == this
+	    && slots[slot].getTicket( ) == tickets[slot];
+    }
+
+    // Append a TCB at the tail
+    public void add( TCB tcb ) {
+	if ( used == slots.length )
+	    resize( );
+	int slot = ( head + used ) % slots.length;
+	slots[slot] = tcb;
+	tickets[slot] = ++nextTicket;
+	tcb.setRunQueue( this, nextTicket );
+	used++;
+	size++;
+    }
+
+    // Unqueue a TCB; returns false if it is not on this queue
+    public boolean remove( TCB tcb ) {
+	if ( tcb.getRunQueue( ) != this )
+	    return false;
+	tcb.setRunQueue( null, 0 );
+	size--;
+	return true;
+    }
+
+    // The TCB at the head, null if the queue is empty
+    public TCB peek( ) {
+	while ( used > 0 && !isLive( head ) ) {
+	    slots[head] = null;
+	    head = ( head + 1 ) % slots.length;
+	    used--;
+	}
+	return ( used > 0 ) ? slots[head] : null;
+    }
+
+    // Unqueue and return the TCB nearest the tail other than except,
+    // null if there is none
+    public TCB pollLast( TCB except ) {
+	for ( int i = used - 1; i >= 0; i-- ) {
+	    int slot = ( head + i ) % slots.length;
+	    if ( isLive( slot ) && slots[slot] != except ) {
+		TCB tcb = slots[slot];
+		remove( tcb );
+		if ( i == used - 1 ) {
+		    slots[slot] = null;
+		    used--;
+		}
+		return tcb;
+	    }
+	}
+	return null;
+    }
+
+    // Move every TCB to the tail of another queue, keeping their order
+    public void drainTo( RunQueue other ) {
+	for ( TCB tcb = peek( ); tcb != null; tcb = peek( ) ) {
+	    remove( tcb );
+	    other.add( tcb );
+	}
+    }
+
+    // The live TCBs from head to tail
+    public TCB[] toArray( ) {
+	TCB live[] = new TCB[size];
+	int n = 0;
+	for ( int i = 0; i < used; i++ ) {
+	    int slot = ( head + i ) % slots.length;
+	    if ( isLive( slot ) )
+		live[n++] = slots[slot];
+	}
+	return live;
+    }
+
+    // Make room: drop removed slots, and double the array unless that
+    // frees at least half of it
+    private void resize( ) {
+	int capacity = ( size * 2 > slots.length ) ? slots.length * 2 : slots.length;
+	TCB newSlots[] = new TCB[capacity];
+	long newTickets[] = new long[capacity];
+	int n = 0;
+	for ( int i = 0; i < used; i++ ) {
+	    int slot = ( head + i ) % slots.length;
+	    if ( isLive( slot ) ) {
+		newSlots[n] = slots[slot];
+		newTickets[n++] = tickets[slot];
+	    }
+	}
+	slots = newSlots;
+	tickets = newTickets;
+	head = 0;
+	used = n;
+    }
+}
@@ -0,0 +1,98 @@
+//*****************************************************************************
+//**  File: RunQueueBench.java
+//**
+//**  Description: Measures what a CPU pays per context switch for its run
+//**    queue, with 10 up to 10,000 queued threads (or the given counts):
+//**    rotating the running thread to the tail, and a thread blocking and
+//**    waking up from the middle of the queue. RunQueue is timed against
+//**    the Vector the CPUs used before, whose cost grows with the queue.
+//**      -->l RunQueueBench              10, 100, 1000 and 10000 threads
+//**      -->l RunQueueBench 50000        just 50000 threads
+//*****************************************************************************
+
+import java.util.*;
+
+public class RunQueueBench extends Thread {
+    private static final int SWITCHES = 200000;
+    private int counts[] = { 10, 100, 1000, 10000 };
+
+    public RunQueueBench( ) {
+    }
+
+    public RunQueueBench( String args[] ) {
+	counts = new int[args.length];
+	for ( int i = 0; i < args.length; i++ )
+	    counts[i] = Integer.parseInt( args[i] );
+    }
+
+    // TCBs that are never scheduled; TCB( ) logs every one it creates,
+    // which would drown the results
+    private static TCB[] makeTCBs( int n ) {
+	boolean logging = ThreadLog.isEnabled( );
+	ThreadLog.setEnabled( false );
+	TCB tcbs[] = new TCB[n];
+	for ( int i = 0; i < n; i++ )
+	    tcbs[i] = new TCB( null, i, 0 );
+	ThreadLog.setEnabled( logging );
+	return tcbs;
+    }
+
+    // ns per switch: rotate the head, and every 4th switch block and
+    // wake a thread from the middle
+    private static long timeVector( TCB tcbs[] ) {
+	Vector<TCB> queue = new Vector<TCB>( );
+	for ( int i = 0; i < tcbs.length; i++ )
+	    queue.add( tcbs[i] );
+	long start = System.nanoTime( );
+	for ( int i = 0; i < SWITCHES; i++ ) {
+	    TCB head = queue.firstElement( );
+	    queue.remove( head );
+	    queue.add( head );
+	    if ( ( i & 3 ) == 0 ) {
+		TCB blocked = tcbs[( i * 7 ) % tcbs.length];
+		queue.remove( blocked );
+		queue.add( blocked );
+	    }
+	}
+	return ( System.nanoTime( ) - start ) / SWITCHES;
+    }
+
+    private static long timeRunQueue( TCB tcbs[] ) {
+	RunQueue queue = new RunQueue( );
+	for ( int i = 0; i < tcbs.length; i++ )
+	    queue.add( tcbs[i] );
+	long start = System.nanoTime( );
+	for ( int i = 0; i < SWITCHES; i++ ) {
+	    TCB head = queue.peek( );
+	    queue.remove( head );
+	    queue.add( head );
+	    if ( ( i & 3 ) == 0 ) {
+		TCB blocked = tcbs[( i * 7 ) % tcbs.length];
+		queue.remove( blocked );
+		queue.add( blocked );
+	    }
+	}
+	return ( System.nanoTime( ) - start ) / SWITCHES;
+    }
+
+    public void run( ) {
+	SysLib.cout( "threads    Vector ns/switch    RunQueue ns/switch\n" );
+	for ( int i = 0; i < counts.length; i++ ) {
+	    TCB tcbs[] = makeTCBs( counts[i] );
+	    // once to warm up, once to measure
+	    timeVector( tcbs );
+	    timeRunQueue( tcbs );
+	    long vector = timeVector( tcbs );
+	    long runQueue = timeRunQueue( tcbs );
+	    SysLib.cout( pad( "" + counts[i], 11 ) + pad( "" + vector, 20 )
+			 + runQueue + "\n" );
+	}
+	SysLib.exit( );
+    }
+
+    private static String pad( String s, int width ) {
+	while ( s.length( ) < width )
+	    s += " ";
+	return s;
+    }
+}
@@ -0,0 +1,435 @@
+import java.io.*;
+import java.util.*;
+
+// An off-line simulator for the scheduling policies. It runs a workload in
+// simulated time through the same SchedulingPolicy objects that the Cpus
+// use, so a policy can be compared with another before it is booted, and
+// on thousands of threads in seconds rather than in real time.
+//
+// A workload is a list of threads, each arriving at some ms and then
+// alternating CPU bursts and I/O waits, given in a trace file with one
+// thread per line:
+//
+//      # name[:tickets[:group]] arrival burst [io burst ...]
+//      a 0 5000
+//      b 0 1000
+//      ed:200:web 250 20 80 20 80 20
+//
+// where a is TestThread2 a 5000, and ed is a thread with 200 tickets, in
+// group web (see FairSharePolicy), that arrives at 250 ms and runs three
+// 20 ms bursts with 80 ms of I/O in between. Without a trace a workload
+// is generated: -threads threads arriving -arrival ms apart on average,
+// most with about -bursts bursts of -burst ms and -io ms waits, and
+// -cpubound % of them running a single burst ten times as long as the
+// others' together. -save writes it out as a trace.
+//
+// The simulation is of one CPU, with -quantum, -levels and -boost as at
+// boot, and context switches taking no time. For each policy it reports
+// the throughput and the mean, median and tail of the response time (from
+// arrival to the first dispatch), of the time spent waiting ready and of
+// the turnaround time, all in ms:
+//
+//      java SchedSim                       every policy, generated workload
+//      java SchedSim -policy mlfq -trace test2.trace
+public class SchedSim {
+    public static final String POLICIES[] = { "mlfq", "rr", "lottery",
+					      "stride", "fair" };
+
+    // A simulated thread, in ms of simulated time
+    private static class SimThread {
+	String name;
+	int tickets = TCB.DEFAULT_TICKETS;
+	String group;               // null for a group of its own
+	long arrival;
+	long phases[];              // burst, io, burst, ... , burst
+	int phase = 0;
+	long left;                  // ms left of the current burst
+	long readySince;
+	long wakeAt;
+	long firstRun = -1;
+	long wait = 0;
+	long finish = -1;
+	TCB tcb;
+    }
+
+    private String policyName = "all";
+    private int quantum = BootConfig.DEFAULT_QUANTUM;
+    private int levels = BootConfig.DEFAULT_LEVELS;
+    private int boost = BootConfig.DEFAULT_BOOST;
+    private String traceFile = null;
+    private String saveFile = null;
+    private int nthreads = 1000;
+    private int arrival = 300;
+    private int burst = 20;
+    private int io = 50;
+    private int bursts = 5;
+    private int cpuBound = 20;
+    private long seed = 1;
+
+    // the run in progress
+    private SchedulingPolicy policy;
+    private SimThread threads[];    // by tid, that is by arrival
+    private int arrived;            // threads[0 .. arrived - 1] have arrived
+    private PriorityQueue<SimThread> waiting; // in I/O, by wakeAt
+    private long nextBoost;
+    private long now;
+
+    public static void main( String args[] ) {
+	SchedSim sim = new SchedSim( );
+	if ( !sim.parse( args ) ) {
+	    System.err.print( usage( ) );
+	    System.exit( 1 );
+	}
+	SimThread workload[];
+	try {
+	    workload = ( sim.traceFile != null ) ? readTrace( sim.traceFile )
+		: sim.generate( );
+	    if ( sim.saveFile != null )
+		writeTrace( workload, sim.saveFile );
+	} catch ( IOException e ) {
+	    System.err.println( "SchedSim: " + e );
+	    System.exit( 1 );
+	    return;
+	}
+	if ( workload.length == 0 ) {
+	    System.err.println( "SchedSim: no threads to run" );
+	    System.exit( 1 );
+	}
+	String names[] = sim.policyName.equals( "all" ) ? POLICIES
+	    : new String[] { sim.policyName };
+	for ( int i = 0; i < names.length; i++ )
+	    System.out.print( sim.run( names[i], workload ) );
+    }
+
+    public static String usage( ) {
+	return "usage: java SchedSim [-policy mlfq|rr|lottery|stride|fair|all]\n" +
+	       "                     [-quantum ms] [-levels n] [-boost ms]\n" +
+	       "                     [-trace file] [-save file] [-seed n]\n" +
+	       "                     [-threads n] [-arrival ms] [-burst ms]\n" +
+	       "                     [-io ms] [-bursts n] [-cpubound %]\n";
+    }
+
+    // Take -key value pairs; every number must be positive, except for
+    // boost, seed and cpubound which may be 0
+    private boolean parse( String args[] ) {
+	for ( int i = 0; i < args.length; i += 2 ) {
+	    if ( !args[i].startsWith( "-" ) || i + 1 == args.length ) {
+		System.err.println( "SchedSim: bad option " + args[i] );
+		return false;
+	    }
+	    String key = args[i].substring( 1 );
+	    String value = args[i + 1];
+	    if ( key.equals( "policy" ) ) {
+		if ( !value.equals( "all" ) &&
+		     Scheduler.newPolicy( value, levels ) == null ) {
+		    System.err.println( "SchedSim: unknown policy " + value );
+		    return false;
+		}
+		policyName = value;
+		continue;
+	    }
+	    if ( key.equals( "trace" ) ) {
+		traceFile = value;
+		continue;
+	    }
+	    if ( key.equals( "save" ) ) {
+		saveFile = value;
+		continue;
+	    }
+	    long n;
+	    try {
+		n = Long.parseLong( value );
+	    } catch ( NumberFormatException e ) {
+		n = -1;
+	    }
+	    boolean zeroOk = key.equals( "boost" ) || key.equals( "seed" ) ||
+		key.equals( "cpubound" );
+	    if ( n < 0 || ( n == 0 && !zeroOk ) || n > Integer.MAX_VALUE ) {
+		System.err.println( "SchedSim: bad value " + value + " for -" + key );
+		return false;
+	    }
+	    if ( key.equals( "quantum" ) )
+		quantum = ( int )n;
+	    else if ( key.equals( "levels" ) )
+		levels = ( int )n;
+	    else if ( key.equals( "boost" ) )
+		boost = ( int )n;
+	    else if ( key.equals( "seed" ) )
+		seed = n;
+	    else if ( key.equals( "threads" ) )
+		nthreads = ( int )n;
+	    else if ( key.equals( "arrival" ) )
+		arrival = ( int )n;
+	    else if ( key.equals( "burst" ) )
+		burst = ( int )n;
+	    else if ( key.equals( "io" ) )
+		io = ( int )n;
+	    else if ( key.equals( "bursts" ) )
+		bursts = ( int )n;
+	    else if ( key.equals( "cpubound" ) && n <= 100 )
+		cpuBound = ( int )n;
+	    else {
+		System.err.println( "SchedSim: bad option " + args[i] );
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    // An exponentially distributed number of ms, at least 1
+    private static long exponential( Random random, double mean ) {
+	return Math.max( Math.round( -mean * Math.log( 1 - random.nextDouble( ) ) ), 1 );
+    }
+
+    private SimThread[] generate( ) {
+	Random random = new Random( seed );
+	SimThread workload[] = new SimThread[nthreads];
+	long time = 0;
+	for ( int i = 0; i < nthreads; i++ ) {
+	    SimThread t = new SimThread( );
+	    t.name = "t" + i;
+	    t.arrival = time;
+	    if ( random.nextInt( 100 ) < cpuBound ) {
+		t.phases = new long[] { exponential( random, 10.0 * bursts * burst ) };
+	    } else {
+		int n = 1 + random.nextInt( 2 * bursts - 1 ); // bursts on average
+		t.phases = new long[2 * n - 1];
+		for ( int j = 0; j < t.phases.length; j++ )
+		    t.phases[j] = exponential( random, ( j % 2 == 0 ) ? burst : io );
+	    }
+	    workload[i] = t;
+	    time += exponential( random, arrival );
+	}
+	return workload;
+    }
+
+    private static SimThread[] readTrace( String fileName ) throws IOException {
+	ArrayList<SimThread> workload = new ArrayList<SimThread>( );
+	BufferedReader in = new BufferedReader( new FileReader( fileName ) );
+	try {
+	    String line;
+	    for ( int lineNo = 1; ( line = in.readLine( ) ) != null; lineNo++ ) {
+		line = line.trim( );
+		if ( line.length( ) == 0 || line.startsWith( "#" ) )
+		    continue;
+		String fields[] = line.split( "\\s+" );
+		if ( fields.length < 3 || fields.length % 2 == 0 )
+		    throw new IOException( fileName + ":" + lineNo +
+					   ": expected name arrival burst [io burst ...]" );
+		SimThread t = new SimThread( );
+		try {
+		    String name[] = fields[0].split( ":" );
+		    t.name = name[0];
+		    if ( name.length > 1 )
+			t.tickets = Integer.parseInt( name[1] );
+		    if ( name.length > 2 )
+			t.group = name[2];
+		    t.arrival = Long.parseLong( fields[1] );
+		    t.phases = new long[fields.length - 2];
+		    for ( int i = 0; i < t.phases.length; i++ )
+			t.phases[i] = Long.parseLong( fields[i + 2] );
+		} catch ( NumberFormatException e ) {
+		    throw new IOException( fileName + ":" + lineNo + ": " + e.getMessage( ) );
+		}
+		boolean valid = t.tickets > 0 && t.arrival >= 0;
+		for ( int i = 0; i < t.phases.length; i++ )
+		    valid &= t.phases[i] > 0;
+		if ( !valid )
+		    throw new IOException( fileName + ":" + lineNo +
+					   ": times and tickets must be positive" );
+		workload.add( t );
+	    }
+	} finally {
+	    in.close( );
+	}
+	return workload.toArray( new SimThread[workload.size( )] );
+    }
+
+    private static void writeTrace( SimThread workload[], String fileName )
+	throws IOException {
+	PrintWriter out = new PrintWriter( new FileWriter( fileName ) );
+	out.println( "# name[:tickets[:group]] arrival burst [io burst ...]" );
+	for ( int i = 0; i < workload.length; i++ ) {
+	    SimThread t = workload[i];
+	    StringBuilder line = new StringBuilder( t.name );
+	    if ( t.tickets != TCB.DEFAULT_TICKETS || t.group != null )
+		line.append( ":" ).append( t.tickets );
+	    if ( t.group != null )
+		line.append( ":" ).append( t.group );
+	    line.append( " " ).append( t.arrival );
+	    for ( int j = 0; j < t.phases.length; j++ )
+		line.append( " " ).append( t.phases[j] );
+	    out.println( line );
+	}
+	out.close( );
+    }
+
+    // Fresh threads for a run, sorted by arrival and with a TCB each whose
+    // tid is the index; a group takes the tid and tickets of its first
+    // thread as the Scheduler would
+    private SimThread[] setUp( SimThread workload[] ) {
+	SimThread run[] = new SimThread[workload.length];
+	for ( int i = 0; i < workload.length; i++ ) {
+	    SimThread t = new SimThread( );
+	    t.name = workload[i].name;
+	    t.tickets = workload[i].tickets;
+	    t.group = workload[i].group;
+	    t.arrival = workload[i].arrival;
+	    t.phases = workload[i].phases;
+	    t.left = t.phases[0];
+	    run[i] = t;
+	}
+	Arrays.sort( run, new Comparator<SimThread>( ) {
+		public int compare( SimThread a, SimThread b ) {
+		    return Long.compare( a.arrival, b.arrival );
+		}
+	    } );
+	HashMap<String, TCB> leaders = new HashMap<String, TCB>( );
+	// TCB( ) logs every one it creates, which would drown the results
+	ThreadLog.setEnabled( false );
+	for ( int i = 0; i < run.length; i++ ) {
+	    TCB leader = ( run[i].group != null ) ? leaders.get( run[i].group ) : null;
+	    run[i].tcb = new TCB( null, i, -1,
+				  ( leader != null ) ? leader.getTid( ) : i );
+	    run[i].tcb.setTickets( run[i].tickets );
+	    run[i].tcb.setGroupWeight( ( leader != null ) ? leader.getGroupWeight( )
+				       : run[i].tickets );
+	    if ( leader == null && run[i].group != null )
+		leaders.put( run[i].group, run[i].tcb );
+	}
+	return run;
+    }
+
+    // When the next thread arrives or wakes up, or the next boost is due
+    private long nextEvent( ) {
+	long next = Long.MAX_VALUE;
+	if ( arrived < threads.length )
+	    next = threads[arrived].arrival;
+	if ( !waiting.isEmpty( ) )
+	    next = Math.min( next, waiting.peek( ).wakeAt );
+	if ( boost > 0 )
+	    next = Math.min( next, nextBoost );
+	return next;
+    }
+
+    // Queue the threads that have arrived or woken up by now and boost if
+    // it is time; return whether one of them preempts the running TCB
+    private boolean admit( TCB running ) {
+	boolean preempt = false;
+	while ( arrived < threads.length && threads[arrived].arrival <= now ) {
+	    SimThread t = threads[arrived++];
+	    t.readySince = now;
+	    policy.onAdd( t.tcb );
+	    preempt |= policy.preempts( t.tcb, running );
+	}
+	while ( !waiting.isEmpty( ) && waiting.peek( ).wakeAt <= now ) {
+	    SimThread t = waiting.poll( );
+	    t.readySince = now;
+	    policy.onWake( t.tcb );
+	    preempt |= policy.preempts( t.tcb, running );
+	}
+	if ( boost > 0 && now >= nextBoost ) {
+	    policy.boost( );
+	    nextBoost = now + boost;
+	}
+	return preempt;
+    }
+
+    private String run( String name, SimThread workload[] ) {
+	policy = Scheduler.newPolicy( name, levels );
+	threads = setUp( workload );
+	arrived = 0;
+	waiting = new PriorityQueue<SimThread>( 16, new Comparator<SimThread>( ) {
+		public int compare( SimThread a, SimThread b ) {
+		    return Long.compare( a.wakeAt, b.wakeAt );
+		}
+	    } );
+	now = threads[0].arrival;
+	nextBoost = now + boost;
+	long busy = 0, dispatches = 0;
+	long start = System.nanoTime( );
+
+	for ( int done = 0; done < threads.length; ) {
+	    admit( null );
+	    TCB tcb = policy.pickNext( );
+	    if ( tcb == null ) {
+		now = nextEvent( );     // idle
+		continue;
+	    }
+	    SimThread t = threads[tcb.getTid( )];
+	    if ( t.firstRun < 0 )
+		t.firstRun = now;
+	    t.wait += now - t.readySince;
+	    dispatches++;
+
+	    // run to the end of the quantum or the burst, unless a thread
+	    // arriving or waking up meanwhile preempts this one
+	    int q = policy.getQuantum( tcb, quantum );
+	    long dispatched = now;
+	    long end = now + Math.min( q, t.left );
+	    for ( long event = nextEvent( ); event < end; event = nextEvent( ) ) {
+		now = event;
+		if ( admit( tcb ) ) {
+		    end = now;
+		    break;
+		}
+	    }
+	    now = end;
+	    int used = ( int )( now - dispatched );
+	    busy += used;
+	    t.left -= used;
+
+	    if ( t.left > 0 ) {
+		policy.onQuantumEnd( tcb, used, used >= q );
+		t.readySince = now;
+	    } else if ( t.phase + 1 < t.phases.length ) {
+		policy.onBlock( tcb );  // off to I/O
+		policy.onQuantumEnd( tcb, used, false );
+		t.wakeAt = now + t.phases[t.phase + 1];
+		t.phase += 2;
+		t.left = t.phases[t.phase];
+		waiting.add( t );
+	    } else {
+		policy.onQuantumEnd( tcb, used, false );
+		policy.onExit( tcb );
+		t.finish = now;
+		done++;
+	    }
+	}
+	return report( name, busy, dispatches, System.nanoTime( ) - start );
+    }
+
+    private String report( String name, long busy, long dispatches, long ns ) {
+	int n = threads.length;
+	long response[] = new long[n], wait[] = new long[n], turnaround[] = new long[n];
+	for ( int i = 0; i < n; i++ ) {
+	    response[i] = threads[i].firstRun - threads[i].arrival;
+	    wait[i] = threads[i].wait;
+	    turnaround[i] = threads[i].finish - threads[i].arrival;
+	}
+	long span = Math.max( now - threads[0].arrival, 1 );
+	return String.format( "%s: %d threads in %d ms, %.2f threads/s, cpu %.1f%%, " +
+			      "%d dispatches (simulated in %d ms)\n",
+			      name, n, span, n * 1000.0 / span, busy * 100.0 / span,
+			      dispatches, ns / 1000000 ) +
+	    summary( "response", response ) + summary( "wait", wait ) +
+	    summary( "turnaround", turnaround );
+    }
+
+    private static String summary( String what, long times[] ) {
+	Arrays.sort( times );
+	double sum = 0;
+	for ( int i = 0; i < times.length; i++ )
+	    sum += times[i];
+	return String.format( "  %-10s mean %9.1f  p50 %8d  p95 %8d  p99 %8d  max %8d\n",
+			      what, sum / times.length, percentile( times, 50 ),
+			      percentile( times, 95 ), percentile( times, 99 ),
+			      times[times.length - 1] );
+    }
+
+    // The p-th percentile of sorted times, by the nearest rank
+    private static long percentile( long sorted[], int p ) {
+	int rank = ( int )Math.ceil( p / 100.0 * sorted.length );
+	return sorted[Math.max( rank, 1 ) - 1];
+    }
+}
@@ -1,78 +1,298 @@
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
-public class Scheduler extends Thread
+// The ThreadOS scheduler. Which ready thread runs next is up to a
+// SchedulingPolicy, by default multi-level feedback queues: a new thread
+// starts in level 0; a thread that uses up its quantum drops a level, and
+// a thread coming back from SLEEP or disk I/O rises one. The highest
+// non-empty level is served round robin with a quantum of timeSlice <<
+// level, a thread arriving at a higher level than the running one
+// preempts it, and every boost ms all threads return to level 0 so that
+// none starves. With a single level this is the original round robin
+// scheduler. The lottery, stride and fair policies share the CPU by
+// tickets instead.
+//
+// Threads are dispatched by one or more virtual CPUs (see Cpu), each with
+// its own queues. A new thread goes to the least loaded CPU and a woken
+// one back to the CPU it last ran on. A CPU with nothing to run steals
+// from the busiest one, and this thread moves threads from the most to
+// the least loaded CPU every BALANCE_INTERVAL ms. When there is nothing
+// to balance and no boost is due it waits until a thread is added or
+// woken up, for good if need be.
+public class Scheduler extends Thread implements SchedulerMBean
 {
-    private Vector queue;
-    private int timeSlice;
+    private Cpu cpus[];
+    private volatile int timeSlice;
     private static final int DEFAULT_TIME_SLICE = 1000;
+    private static final int DEFAULT_LEVELS = 3;
+    private static final String DEFAULT_POLICY = "mlfq";
+    private int levels;
+    private static final int DEFAULT_BOOST = 10000; // ms
+    private static final int BALANCE_INTERVAL = 100; // ms
+    private int boost;
+    private long lastBoost;
+
+    // This thread waits on idleLock for arrivals, see run( )
+    private final Object idleLock = new Object( );
+    private volatile boolean idleWaiting = false;
+    private AtomicLong arrivals = new AtomicLong( );
 
     // New data added to p161 
-    private boolean[] tids; // Indicate which ids have been used
+    private TidMap tids; // Indicate which ids have been used
     private static final int DEFAULT_MAX_THREADS = 10000;
 
+    // Live TCBs by thread ID, including those blocked off the queue, and
+    // by thread, since every system call looks up its caller's TCB
+    private HashMap<Integer, TCB> tcbs = new HashMap<Integer, TCB>( );
+    private HashMap<Thread, TCB> threads = new HashMap<Thread, TCB>( );
+
+    // Sampling profiler, if enabled
+    private Profiler profiler = null;
+
+    // statistics
+    private AtomicLong migrations = new AtomicLong( ); // by any CPU
+    private long quanta = 0;        // # quanta given
+    private long quantaTime = 0;    // ... and their total ms
+    private volatile int lastQuantum = 0;
+
+    // Adaptive time slices: a CPU's runnable threads share a period of
+    // latency ms, within [minQuantum, maxQuantum]; 0 is the fixed timeSlice
+    private volatile int latency = 0;
+    private volatile int minQuantum = 0;
+    private volatile int maxQuantum = 0;
+
+    // The most of a CPU its real-time threads may reserve, see RealtimeClass
+    private volatile double realtimeBound = 0.9;
+    private volatile DiskQueue diskQueue = null; // see lendPriority( )
+    private volatile FileTable fileTable = null; // see deleteThread( )
+
     // A new feature added to p161 
-    // Allocate an ID array, each element indicating if that id has been used
-    private int nextId = 0;
+    // Allocate an ID bitmap, each bit indicating if that id has been used
     private void initTid( int maxThreads ) {
-	tids = new boolean[maxThreads];
-	for ( int i = 0; i < maxThreads; i++ )
-	    tids[i] = false;
+	tids = new TidMap( maxThreads );
     }
 
     // A new feature added to p161 
     // Search an available thread ID and provide a new thread with this ID
     private int getNewTid( ) {
-	for ( int i = 0; i < tids.length; i++ ) {
-	    int tentative = ( nextId + i ) % tids.length;
-	    if ( tids[tentative] == false ) {
-		tids[tentative] = true;
-		nextId = ( tentative + 1 ) % tids.length;
-		return tentative;
-	    }
-	}
-	return -1;
+	return tids.allocate( );
     }
 
     // A new feature added to p161 
-    // Return the thread ID and set the corresponding tids element to be unused
+    // Return the thread ID and set the corresponding tids bit to be unused
     private boolean returnTid( int tid ) {
-	if ( tid >= 0 && tid < tids.length && tids[tid] == true ) {
-	    tids[tid] = false;
-	    return true;
-	}
-	return false;
+	return tids.free( tid );
+    }
+
+    // Hold a returned thread ID back for ms before handing it out again,
+    // so that a join or waitpid does not mistake a new thread for an old one
+    public void setTidRecycleDelay( int ms ) {
+	tids.setRecycleDelay( ms );
     }
 
     // A new feature added to p161 
-    // Retrieve the current thread's TCB from the queue
+    // Retrieve the current thread's TCB, whether it is ready or blocked
     public TCB getMyTcb( ) {
 	Thread myThread = Thread.currentThread( ); // Get my thread object
-	synchronized( queue ) {
-	    for ( int i = 0; i < queue.size( ); i++ ) {
-		TCB tcb = ( TCB )queue.elementAt( i );
-		Thread thread = tcb.getThread( );
-		if ( thread == myThread ) // if this is my TCB, return it
-		    return tcb;
-	    }
+	synchronized( tcbs ) {
+	    return threads.get( myThread );
 	}
-	return null;
+    }
+
+    // Retrieve the TCB of a live thread by its ID, null if there is none
+    public TCB getTcb( int tid ) {
+	synchronized ( tcbs ) {
+	    return tcbs.get( tid );
+	}
+    }
+
+    // The number of TCBs waiting in the run queues
+    public int getQueueSize( ) {
+	int size = 0;
+	for ( int i = 0; i < cpus.length; i++ )
+	    size += cpus[i].getLoad( );
+	return size;
+    }
+
+    public int getLevels( ) {
+	return levels;
+    }
+
+    public String getPolicy( ) {
+	return cpus[0].getPolicy( ).getName( );
+    }
+
+    public int getCpus( ) {
+	return cpus.length;
+    }
+
+    public long getSteals( ) {
+	long steals = 0;
+	for ( int i = 0; i < cpus.length; i++ )
+	    steals += cpus[i].getSteals( );
+	return steals;
+    }
+
+    public long getMigrations( ) {
+	return migrations.get( );
+    }
+
+    public long getOverruns( ) {
+	long overruns = 0;
+	for ( int i = 0; i < cpus.length; i++ )
+	    overruns += cpus[i].getOverruns( );
+	return overruns;
+    }
+
+    // Describe every live TCB for KernelStats
+    public KernelStats.ThreadStat[] getThreadStats( ) {
+	TCB all[];
+	TCB current[] = getRunning( );
+	synchronized ( tcbs ) {
+	    all = tcbs.values( ).toArray( new TCB[0] );
+	}
+	KernelStats.ThreadStat stats[] = new KernelStats.ThreadStat[all.length];
+	for ( int i = 0; i < all.length; i++ ) {
+	    KernelStats.ThreadStat stat = new KernelStats.ThreadStat( );
+	    stat.tid = all[i].getTid( );
+	    stat.pid = all[i].getPid( );
+	    stat.gid = all[i].getGid( );
+	    stat.level = all[i].getLevel( );
+	    stat.cpu = ( all[i].getCpu( ) != null ) ? all[i].getCpu( ).getCpuId( ) : -1;
+	    stat.tickets = all[i].getTickets( );
+	    stat.throttledTime = all[i].getThrottledTime( ) / 1000000;
+	    if ( all[i].getTerminated( ) )
+		stat.state = KernelStats.TERMINATED;
+	    else if ( all[i].getBlocked( ) )
+		stat.state = KernelStats.BLOCKED;
+	    else if ( Arrays.asList( current ).contains( all[i] ) )
+		stat.state = KernelStats.RUNNING;
+	    else
+		stat.state = KernelStats.READY;
+	    stats[i] = stat;
+	}
+	return stats;
+    }
+
+    public int getQuantum( ) {
+	return timeSlice;
+    }
+
+    // Change the time slice; takes effect from the next quantum
+    public void setQuantum( int quantum ) {
+	if ( quantum > 0 )
+	    timeSlice = quantum;
+    }
+
+    // Turn adaptive time slices on, or off with a latency of 0
+    public void setAdaptive( int latency, int minQuantum, int maxQuantum ) {
+	this.minQuantum = Math.max( minQuantum, 1 );
+	this.maxQuantum = Math.max( maxQuantum, this.minQuantum );
+	this.latency = latency;
+    }
+
+    public int getLatency( ) {
+	return latency;
+    }
+
+    // The time slice of a TCB on a CPU with runnable TCBs, before its
+    // policy scales it. Adaptive slices are the latency period split
+    // evenly, and a thread that tends to give up the CPU early gets up to
+    // twice that, so that it can finish its short bursts in one go even
+    // when the load squeezes everyone's slice.
+    int getTimeSlice( TCB tcb, int runnable ) {
+	int period = latency;
+	if ( period == 0 )
+	    return timeSlice;
+	int slice = period / Math.max( runnable, 1 );
+	slice = ( int )( slice * ( 2.0 - tcb.getUsage( ) ) );
+	return Math.min( Math.max( slice, minQuantum ), maxQuantum );
+    }
+
+    // Count a quantum given by a CPU
+    synchronized void recordQuantum( int quantum ) {
+	quanta++;
+	quantaTime += quantum;
+	lastQuantum = quantum;
+    }
+
+    public int getLastQuantum( ) {
+	return lastQuantum;
+    }
+
+    // The average quantum given since boot, in ms
+    public synchronized double getAverageQuantum( ) {
+	return ( quanta > 0 ) ? ( double )quantaTime / quanta : 0;
+    }
+
+    public long getContextSwitches( ) {
+	long switches = 0;
+	for ( int i = 0; i < cpus.length; i++ )
+	    switches += cpus[i].getContextSwitches( );
+	return switches;
+    }
+
+    public int getThreadGroups( ) {
+	int groups = 0;
+	for ( int i = 0; i < cpus.length; i++ )
+	    groups += cpus[i].getThreadGroups( );
+	return groups;
+    }
+
+    public int getGroupMembers( ) {
+	int members = 0;
+	for ( int i = 0; i < cpus.length; i++ )
+	    members += cpus[i].getGroupMembers( );
+	return members;
+    }
+
+    public int getTidsInUse( ) {
+	return tids.getInUse( );
     }
 
     // A new feature added to p161 
     // Return the maximal number of threads to be spawned in the system
     public int getMaxThreads( ) {
-	return tids.length;
+	return tids.getMaxIds( );
+    }
+
+    // A policy for one CPU by its -policy name, null if there is none
+    public static SchedulingPolicy newPolicy( String name, int levels ) {
+	if ( name.equals( "mlfq" ) )
+	    return new FeedbackPolicy( levels );
+	if ( name.equals( "rr" ) )
+	    return new FeedbackPolicy( 1 );
+	if ( name.equals( "lottery" ) )
+	    return new LotteryPolicy( );
+	if ( name.equals( "stride" ) )
+	    return new StridePolicy( );
+	if ( name.equals( "fair" ) )
+	    return new FairSharePolicy( );
+	return null;
+    }
+
+    // Allocate the virtual CPUs, each with its own policy
+    private void initCpus( String policy, int levels, int boostInterval,
+			   int ncpus ) {
+	if ( newPolicy( policy, levels ) == null )
+	    policy = DEFAULT_POLICY;
+	this.levels = ( policy.equals( "mlfq" ) && levels > 0 ) ? levels : 1;
+	cpus = new Cpu[ ( ncpus > 0 ) ? ncpus : 1 ];
+	for ( int i = 0; i < cpus.length; i++ )
+	    cpus[i] = new Cpu( this, i, newPolicy( policy, levels ) );
+	boost = boostInterval;
+	lastBoost = System.currentTimeMillis( );
     }
 
     public Scheduler( ) {
 	timeSlice = DEFAULT_TIME_SLICE;
-	queue = new Vector( );
+	initCpus( DEFAULT_POLICY, DEFAULT_LEVELS, DEFAULT_BOOST, 1 );
 	initTid( DEFAULT_MAX_THREADS );
     }
 
     public Scheduler( int quantum ) {
 	timeSlice = quantum;
-	queue = new Vector( );
+	initCpus( DEFAULT_POLICY, DEFAULT_LEVELS, DEFAULT_BOOST, 1 );
 	initTid( DEFAULT_MAX_THREADS );
     }
 
@@ -80,27 +300,101 @@ public class Scheduler extends Thread
     // A constructor to receive the max number of threads to be spawned
     public Scheduler( int quantum, int maxThreads ) {
 	timeSlice = quantum;
-	queue = new Vector( );
+	initCpus( DEFAULT_POLICY, DEFAULT_LEVELS, DEFAULT_BOOST, 1 );
 	initTid( maxThreads );
     }
 
-    private void schedulerSleep( ) {
-	try {
-	    Thread.sleep( timeSlice );
-	} catch ( InterruptedException e ) {
+    // A constructor to receive the number of feedback levels, how often
+    // every thread is boosted back to level 0 and the number of CPUs
+    public Scheduler( int quantum, int maxThreads, int levels,
+		      int boostInterval, int ncpus ) {
+	timeSlice = quantum;
+	initCpus( DEFAULT_POLICY, levels, boostInterval, ncpus );
+	initTid( maxThreads );
+    }
+
+    // ... and the name of the scheduling policy
+    public Scheduler( int quantum, int maxThreads, int levels,
+		      int boostInterval, int ncpus, String policy ) {
+	timeSlice = quantum;
+	initCpus( policy, levels, boostInterval, ncpus );
+	initTid( maxThreads );
+    }
+
+    // Sample the running thread at quantum boundaries or at the
+    // profiler's own rate
+    public void setProfiler( Profiler p ) {
+	profiler = p;
+	if ( p != null && !p.atQuantum( ) )
+	    p.start( );
+    }
+
+    // Sample a TCB at the end of its quantum, if the profiler does so
+    void sample( TCB tcb ) {
+	Profiler p = profiler;
+	if ( p != null && p.atQuantum( ) )
+	    p.sample( tcb );
+    }
+
+    // The TCBs holding a CPU
+    public TCB[] getRunning( ) {
+	Vector<TCB> running = new Vector<TCB>( );
+	for ( int i = 0; i < cpus.length; i++ ) {
+	    TCB tcb = cpus[i].getRunning( );
+	    if ( tcb != null )
+		running.add( tcb );
 	}
+	return running.toArray( new TCB[0] );
     }
 
     // A modified addThread of p161 example
     public TCB addThread( Thread t ) {
+	return addThread( t, null );
+    }
+
+    // Add a thread running the named program
+    public TCB addThread( Thread t, String program ) {
+	return addThread( t, program, 0 );
+    }
+
+    // ... with a number of tickets for the proportional-share policies;
+    // 0 inherits the parent's
+    public TCB addThread( Thread t, String program, int tickets ) {
 	t.setPriority( 2 );
 	TCB parentTcb = getMyTcb( ); // get my TCB and find my TID
 	int pid = ( parentTcb != null ) ? parentTcb.getTid( ) : -1;
 	int tid = getNewTid( ); // get a new TID
 	if ( tid == -1)
 	    return null;
-	TCB tcb = new TCB( t, tid, pid ); // create a new TCB
-	queue.add( tcb );
+	// a child of a top-level thread starts a new thread group
+	int gid = ( parentTcb == null || parentTcb.getPid( ) == -1 ) ?
+	    tid : parentTcb.getGid( );
+	TCB tcb = new TCB( t, tid, pid, gid ); // create a new TCB
+	if ( parentTcb != null ) // children inherit the I/O priority
+	    tcb.setIoPriority( parentTcb.getBaseIoClass( ),
+			       parentTcb.getBaseIoLevel( ) );
+	if ( program != null )
+	    tcb.setProgram( program );
+	if ( tickets > 0 )
+	    tcb.setTickets( tickets );
+	else if ( parentTcb != null )
+	    tcb.setTickets( parentTcb.getBaseTickets( ) );
+	// a group weighs what its first program was given, see FairSharePolicy
+	if ( gid == tid )
+	    tcb.setGroupWeight( tcb.getTickets( ) );
+	else
+	    tcb.setGroupWeight( parentTcb.getBaseGroupWeight( ) );
+	// ... and has one set of disk bandwidth limits, see Kernel
+	tcb.setGroupIoLimits( ( gid == tid ) ? new IoThrottle[2]
+			      : parentTcb.getGroupIoLimits( ) );
+	synchronized ( tcbs ) {
+	    tcbs.put( tid, tcb );
+	    threads.put( t, tcb );
+	}
+	Cpu cpu = leastLoaded( );
+	cpu.add( tcb );
+	kickIdle( cpu );
+	arrived( );
 	return tcb;
     }
 
@@ -108,57 +402,318 @@ public class Scheduler extends Thread
     // Removing the TCB of a terminating thread
     public boolean deleteThread( ) {
 	TCB tcb = getMyTcb( ); 
-	if ( tcb!= null )
-	    return tcb.setTerminated( );
-	else
+	if ( tcb!= null ) {
+	    // the files it left open no longer borrow from their waiters
+	    FileTable table = fileTable;
+	    if ( table != null )
+		table.threadExited( tcb );
+	    // off its CPU's queues at once, ending its quantum if it runs
+	    boolean reap;
+	    while ( true ) {
+		Cpu cpu = tcb.getCpu( );
+		synchronized ( cpu ) {
+		    if ( tcb.getCpu( ) == cpu ) {
+			reap = cpu.exit( tcb );
+			break;
+		    }
+		}
+	    }
+	    if ( reap )
+		reapThread( tcb );
+	    return true;
+	} else
 	    return false;
     }
 
+    // Forget a terminated TCB that is off its CPU's queues
+    void reapThread( TCB tcb ) {
+	synchronized ( tcbs ) {
+	    tcbs.remove( tcb.getTid( ) );
+	    threads.remove( tcb.getThread( ) );
+	}
+	returnTid( tcb.getTid( ) );
+    }
+
+    // Take a thread off the run queue while it waits for an event such as
+    // a timer; it gets no quanta until wakeThread( ) puts it back
+    public void blockThread( TCB tcb ) {
+	tcb.setBlocked( );
+	while ( true ) {
+	    Cpu cpu = tcb.getCpu( );
+	    synchronized ( cpu ) {
+		if ( tcb.getCpu( ) == cpu ) {
+		    cpu.remove( tcb );
+		    return;
+		}
+	    }
+	}
+    }
+
+    // Cap the share of each CPU real-time threads may reserve
+    public void setRealtimeBound( double bound ) {
+	if ( bound > 0 && bound <= 1 )
+	    realtimeBound = bound;
+    }
+
+    // Give a thread a real-time reservation on its CPU, or change it;
+    // false if the CPU cannot take it. Each CPU admits up to the bound.
+    public boolean reserve( TCB tcb, int period, int budget, int deadline ) {
+	if ( !Reservation.isValid( period, budget, deadline ) )
+	    return false;
+	Reservation r = new Reservation( period, budget, deadline,
+					 System.currentTimeMillis( ) );
+	while ( true ) {
+	    Cpu cpu = tcb.getCpu( );
+	    synchronized ( cpu ) {
+		if ( tcb.getCpu( ) == cpu )
+		    return cpu.reserve( tcb, r, realtimeBound );
+	    }
+	}
+    }
+
+    // Make a real-time thread an ordinary one again
+    public void unreserve( TCB tcb ) {
+	while ( true ) {
+	    Cpu cpu = tcb.getCpu( );
+	    synchronized ( cpu ) {
+		if ( tcb.getCpu( ) == cpu ) {
+		    cpu.unreserve( tcb );
+		    return;
+		}
+	    }
+	}
+    }
+
+    // A real-time thread's job is done; returns the ms until its next one
+    // is released, -1 if it has no reservation
+    public long completeJob( TCB tcb ) {
+	while ( true ) {
+	    Cpu cpu = tcb.getCpu( );
+	    synchronized ( cpu ) {
+		if ( tcb.getCpu( ) == cpu )
+		    return cpu.completeJob( tcb );
+	    }
+	}
+    }
+
+    // Tell where disk requests wait, so that lent I/O priority re-ranks them
+    public void setDiskQueue( DiskQueue queue ) {
+	diskQueue = queue;
+    }
+
+    public void setFileTable( FileTable table ) {
+	fileTable = table;
+    }
+
+    // Lend a thread the CPU and I/O priority of one waiting for something
+    // it holds, re-ranking it on its CPU and among the disk requests it
+    // has queued; true if either went up
+    public boolean lendPriority( TCB holder, TCB waiter ) {
+	boolean raised;
+	while ( true ) {
+	    Cpu cpu = holder.getCpu( );
+	    synchronized ( cpu ) {
+		if ( holder.getCpu( ) == cpu ) {
+		    raised = cpu.lend( holder, waiter );
+		    break;
+		}
+	    }
+	}
+	if ( holder.lendIoPriority( waiter.getIoClass( ), waiter.getIoLevel( ) ) ) {
+	    raised = true;
+	    DiskQueue queue = diskQueue;
+	    if ( queue != null )
+		queue.rerank( holder );
+	}
+	return raised;
+    }
+
+    // Give a thread back its own CPU and I/O priority
+    public void returnPriority( TCB holder ) {
+	while ( true ) {
+	    Cpu cpu = holder.getCpu( );
+	    synchronized ( cpu ) {
+		if ( holder.getCpu( ) == cpu ) {
+		    cpu.unlend( holder );
+		    break;
+		}
+	    }
+	}
+	holder.returnIoPriority( );
+    }
+
+    // Return a blocked thread to the run queue of the CPU it last ran on
+    public void wakeThread( TCB tcb ) {
+	if ( tcb.getBlocked( ) ) {
+	    Cpu cpu = tcb.getCpu( );
+	    cpu.wake( tcb );
+	    tcb.setReady( );
+	    kickIdle( cpu );
+	    arrived( );
+	}
+    }
+
+    // A TCB was queued: wake this thread up if it is waiting, since it
+    // may have something to balance or boost now
+    private void arrived( ) {
+	if ( idleWaiting ) {
+	    arrivals.incrementAndGet( );
+	    synchronized ( idleLock ) {
+		idleLock.notify( );
+	    }
+	}
+    }
+
+    // A TCB was queued on a CPU. If that CPU has something to run already,
+    // an idle one is told to come and steal.
+    private void kickIdle( Cpu cpu ) {
+	if ( cpus.length > 1 && cpu.getLoad( ) > 1 ) {
+	    for ( int i = 0; i < cpus.length; i++ ) {
+		if ( cpus[i].isIdle( ) ) {
+		    cpus[i].kick( );
+		    break;
+		}
+	    }
+	}
+    }
+
+    private Cpu leastLoaded( ) {
+	Cpu least = cpus[0];
+	for ( int i = 1; i < cpus.length; i++ )
+	    if ( cpus[i].getLoad( ) < least.getLoad( ) )
+		least = cpus[i];
+	return least;
+    }
+
+    // Move a ready TCB from one CPU to another, keeping its level. Both
+    // CPUs are locked, the lower id first, so that the TCB is always on
+    // exactly one of them.
+    private boolean migrate( Cpu from, Cpu to ) {
+	Cpu first = ( from.getCpuId( ) < to.getCpuId( ) ) ? from : to;
+	Cpu second = ( first == from ) ? to : from;
+	synchronized ( first ) {
+	    synchronized ( second ) {
+		TCB tcb = from.takeReady( );
+		if ( tcb == null )
+		    return false;
+		to.add( tcb );
+	    }
+	}
+	migrations.incrementAndGet( );
+	return true;
+    }
+
+    // Called by an idle CPU: take a ready TCB from the busiest other CPU
+    boolean steal( Cpu thief ) {
+	Cpu victim = null;
+	for ( int i = 0; i < cpus.length; i++ ) {
+	    if ( cpus[i] != thief && cpus[i].getLoad( ) > 1 &&
+		 ( victim == null || cpus[i].getLoad( ) > victim.getLoad( ) ) )
+		victim = cpus[i];
+	}
+	return victim != null && migrate( victim, thief );
+    }
+
+    // Even out the CPUs' loads, one TCB at a time
+    private void balance( ) {
+	while ( true ) {
+	    Cpu most = cpus[0];
+	    Cpu least = cpus[0];
+	    for ( int i = 1; i < cpus.length; i++ ) {
+		if ( cpus[i].getLoad( ) > most.getLoad( ) )
+		    most = cpus[i];
+		if ( cpus[i].getLoad( ) < least.getLoad( ) )
+		    least = cpus[i];
+	    }
+	    if ( most.getLoad( ) - least.getLoad( ) <= 1 || !migrate( most, least ) )
+		return;
+	}
+    }
+
+    // Return every thread to level 0, keeping their order
+    private void boostThreads( ) {
+	for ( int i = 0; i < cpus.length; i++ )
+	    cpus[i].boost( );
+	TCB all[];
+	synchronized ( tcbs ) {
+	    all = tcbs.values( ).toArray( new TCB[0] );
+	}
+	// blocked threads are not on any queue; lock the CPU they will be
+	// woken up on, so that their level does not change under a wakeup
+	for ( int i = 0; i < all.length; i++ ) {
+	    while ( all[i].getBlocked( ) ) {
+		Cpu cpu = all[i].getCpu( );
+		synchronized ( cpu ) {
+		    if ( all[i].getCpu( ) == cpu ) {
+			if ( all[i].getBlocked( ) )
+			    all[i].setLevel( 0 );
+			break;
+		    }
+		}
+	    }
+	}
+    }
+
     public void sleepThread( int milliseconds ) {
 	try {
 	    sleep( milliseconds );
 	} catch ( InterruptedException e ) { }
     }
     
-    // A modified run of p161
-    public void run( ) {
-	Thread current = null;
+    // The ms this thread may wait before it next has work: until the next
+    // boost if there are threads to boost, at most BALANCE_INTERVAL while
+    // the CPUs have TCBs to even out, and 0, for good, otherwise
+    private long idleTime( ) {
+	long wait = 0;
+	if ( boost > 0 && getLevels( ) > 1 ) {
+	    int live;
+	    synchronized ( tcbs ) {
+		live = tcbs.size( );
+	    }
+	    if ( live > 0 )
+		wait = Math.max( lastBoost + boost - System.currentTimeMillis( ), 1 );
+	}
+	if ( cpus.length > 1 && getQueueSize( ) > 1 &&
+	     ( wait == 0 || wait > BALANCE_INTERVAL ) )
+	    wait = BALANCE_INTERVAL;
+	return wait;
+    }
 
+    // Wait until idleTime( ) is up or a TCB arrives, if an arrival could
+    // make it shorter. An arrival after idleWaiting is set counts even if
+    // it comes before the wait( ).
+    private void waitForWork( ) {
+	idleWaiting = true;
+	long seen = arrivals.get( );
+	long wait = idleTime( );
+	if ( wait > 0 && ( cpus.length == 1 || wait <= BALANCE_INTERVAL ) )
+	    idleWaiting = false; // only the clock can end this one
+	synchronized ( idleLock ) {
+	    if ( arrivals.get( ) == seen ) {
+		try {
+		    idleLock.wait( wait );
+		} catch ( InterruptedException e ) { }
+	    }
+	}
+	idleWaiting = false;
+    }
+
+    // A modified run of p161: start the CPUs, then balance their loads
+    // and boost every thread to level 0 now and then
+    public void run( ) {
 	this.setPriority( 6 );
-	
+	for ( int i = 0; i < cpus.length; i++ )
+	    cpus[i].start( );
+
 	while ( true ) {
-	    try {
-		// get the next TCB and its thrad
-		if ( queue.size( ) == 0 )
-		    continue;
-		TCB currentTCB = (TCB)queue.firstElement( );
-		if ( currentTCB.getTerminated( ) == true ) {
-		    queue.remove( currentTCB );
-		    returnTid( currentTCB.getTid( ) );
-		    continue;
-		}
-		current = currentTCB.getThread( );
-		if ( current != null ) {
-		    if ( current.isAlive( ) )
-			current.setPriority( 4 );
-		    else {
-			// Spawn must be controlled by Scheduler
-			// Scheduler must start a new thread
-			current.start( ); 
-			current.setPriority( 4 );
-		    }
-		}
-		
-		schedulerSleep( );
-		// System.out.println("* * * Context Switch * * * ");
-
-		synchronized ( queue ) {
-		    if ( current != null && current.isAlive( ) )
-			current.setPriority( 2 );
-		    queue.remove( currentTCB ); // rotate this TCB to the end
-		    queue.add( currentTCB );
-		}
-	    } catch ( NullPointerException e3 ) { };
+	    waitForWork( );
+	    if ( cpus.length > 1 )
+		balance( );
+	    if ( boost > 0 && getLevels( ) > 1 &&
+		 System.currentTimeMillis( ) - lastBoost >= boost ) {
+		boostThreads( );
+		lastBoost = System.currentTimeMillis( );
+	    }
 	}
     }
 }
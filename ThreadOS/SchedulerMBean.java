@@ -0,0 +1,17 @@
+// The Scheduler as seen through JMX (ThreadOS:type=Scheduler)
+public interface SchedulerMBean {
+    public int getQueueSize( );         // TCBs in the run queue
+    public int getQuantum( );           // time slice in ms
+    public void setQuantum( int quantum );
+    public int getLatency( );           // adaptive period in ms, 0 if fixed
+    public int getLastQuantum( );       // ms of the last quantum given
+    public double getAverageQuantum( );
+    public long getContextSwitches( );  // dispatches since boot
+    public int getCpus( );              // virtual CPUs
+    public String getPolicy( );         // -policy name
+    public long getSteals( );           // threads taken by idle CPUs
+    public long getMigrations( );       // threads moved between CPUs
+    public long getOverruns( );         // quanta overrun past a safepoint
+    public int getTidsInUse( );
+    public int getMaxThreads( );
+}
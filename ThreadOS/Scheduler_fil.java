@@ -100,18 +100,16 @@ public class Scheduler extends Thread
             return null;
         TCB tcb = new TCB( t, tid, pid ); // create a new TCB
     
-        // the following if and for statements are for file system.
-        if ( parentTcb != null ) {
-            for ( int i = 0; i < 32; i++ ) {
-                tcb.ftEnt[i] = parentTcb.ftEnt[i];
-                // JFM added 2012-12-01
-                // increment the count for any file table entries inherited from parent
-                if ( tcb.ftEnt[i] != null )
-                    tcb.ftEnt[i].count++;
-            }
-        }
+        // the following if statement is for file system.
+        // the child shares the parent's fd table until either changes it,
+        // and the count of every entry inherited goes up (JFM 2012-12-01)
+        if ( parentTcb != null )
+            tcb.inheritFds( parentTcb );
     
-        queue.add( tcb );
+        synchronized ( queue ) {
+            queue.add( tcb );
+            queue.notify( ); // wake the scheduler if it was idle
+        }
         return tcb;
     }
 
@@ -125,7 +123,7 @@ public class Scheduler extends Thread
             // JFM added 2012-12-01
             // if any file table entries are still open, decrement their count
             for ( int i = 3; i < 32; i++ )
-                if ( tcb.ftEnt[i] != null )
+                if ( tcb.getFtEnt( i ) != null )
                     // JFM changed 2012-12-13
                     // close any open file descriptors rather than decrement the counts
                     // to ensure that system-wide file table entries are removed
@@ -135,6 +133,19 @@ public class Scheduler extends Thread
         }
     }
 
+    // Wait until the run queue has a TCB and return the first one, so that
+    // an idle scheduler blocks instead of spinning
+    private TCB nextThread( ) {
+        synchronized ( queue ) {
+            while ( queue.size( ) == 0 ) {
+                try {
+                    queue.wait( );
+                } catch ( InterruptedException e ) { }
+            }
+            return ( TCB )queue.firstElement( );
+        }
+    }
+
     public void sleepThread( int milliseconds ) {
         try {
             sleep( milliseconds );
@@ -150,9 +161,7 @@ public class Scheduler extends Thread
         while ( true ) {
             try {
                 // get the next TCB and its thrad
-                if ( queue.size( ) == 0 )
-                    continue;
-                TCB currentTCB = (TCB)queue.firstElement( );
+                TCB currentTCB = nextThread( );
                 if ( currentTCB.getTerminated( ) == true ) {
                     queue.remove( currentTCB );
                     returnTid( currentTCB.getTid( ) );
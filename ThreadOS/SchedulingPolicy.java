@@ -0,0 +1,66 @@
+// How a CPU chooses which of its ready TCBs runs next. Every Cpu has its
+// own policy object and calls it only under the CPU's monitor, so a
+// policy needs no locking of its own. The TCBs a policy holds are the
+// ready ones, the running one included: pickNext( ) leaves the TCB it
+// returns queued, and a TCB leaves only through onBlock( ), onExit( ) or
+// takeReady( ).
+//
+// The Scheduler picks a policy by name with -policy:
+//
+//   mlfq     multi-level feedback queues (FeedbackPolicy), the default
+//   rr       round robin, that is mlfq with a single level
+//   lottery  proportional share by lottery (LotteryPolicy)
+//   stride   proportional share by stride scheduling (StridePolicy)
+//   fair     stride shares among thread groups, then among their threads
+//            (FairSharePolicy)
+//
+// The proportional-share policies give each thread CPU time in proportion
+// to its tickets, set at exec time with SysLib.exec( args, tickets ).
+public interface SchedulingPolicy {
+    // The policy's -policy name
+    public String getName( );
+
+    // A TCB comes to this CPU: a new thread, or one moved from another CPU
+    public void onAdd( TCB tcb );
+
+    // A TCB that was blocked is ready again
+    public void onWake( TCB tcb );
+
+    // A TCB blocks; false if this CPU did not hold it
+    public boolean onBlock( TCB tcb );
+
+    // A terminated TCB is taken off this CPU for good, or a reserved one
+    // off the policy until it joins again through onAdd( )
+    public void onExit( TCB tcb );
+
+    // The TCB to run next, null if there is none
+    public TCB pickNext( );
+
+    // How many ms a TCB may run, given the scheduler's time slice
+    public int getQuantum( TCB tcb, int timeSlice );
+
+    // A TCB ran for used ms, expired if it ran its whole quantum. It may
+    // have blocked meanwhile, in which case it is only charged for the time.
+    public void onQuantumEnd( TCB tcb, int used, boolean expired );
+
+    // A TCB holding something a waiter needs runs at least at the waiter's
+    // priority (see TCB.lendCpuPriority( )) until it gives it back with
+    // unlend( ); the policy re-ranks it if it is queued. lend( ) returns
+    // whether the TCB's priority went up.
+    public boolean lend( TCB holder, TCB waiter );
+
+    public void unlend( TCB holder );
+
+    // Whether a TCB just queued should cut the running one's quantum short
+    public boolean preempts( TCB tcb, TCB running );
+
+    // Give up a ready TCB other than running to another CPU; null if none
+    public TCB takeReady( TCB running );
+
+    // Undo what a policy has held against long-running threads, every
+    // -boost ms
+    public void boost( );
+
+    // The number of TCBs held, the running one included
+    public int size( );
+}
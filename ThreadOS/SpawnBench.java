@@ -0,0 +1,73 @@
+//*****************************************************************************
+//**  File: SpawnBench.java
+//**
+//**  Description: Spawns 100,000 user threads (or the given count) that
+//**    sleep most of the time, and reports how fast they were exec'ed and
+//**    how much heap each one holds while they are all alive, and how long
+//**    until every one of them had exited.
+//**      -->l SpawnBench                 100000 threads sleeping 10 s
+//**      -->l SpawnBench 20000 5000      20000 threads sleeping 5 s
+//**    Boot with -threads above the count and -threadlog off.
+//**    Every user thread is a JVM thread with a stack of its own, so give
+//**    them small ones, and mind the limit on processes of the user:
+//**      java -Xss256k Boot -threads 200000 -threadlog off
+//*****************************************************************************
+
+public class SpawnBench extends Thread {
+    private static final int SLEEP_TICK = 1000;  // ms a sleeper sleeps at once
+    private int count = 100000;
+    private int sleep = 10000;
+    private boolean sleeper = false;
+
+    public SpawnBench( ) {
+    }
+
+    public SpawnBench( String args[] ) {
+	if ( args.length > 0 && args[0].equals( "sleeper" ) ) {
+	    sleeper = true;
+	    sleep = Integer.parseInt( args[1] );
+	    return;
+	}
+	if ( args.length > 0 )
+	    count = Integer.parseInt( args[0] );
+	if ( args.length > 1 )
+	    sleep = Integer.parseInt( args[1] );
+    }
+
+    private static long usedHeap( ) {
+	Runtime runtime = Runtime.getRuntime( );
+	for ( int i = 0; i < 3; i++ )
+	    System.gc( );
+	return runtime.totalMemory( ) - runtime.freeMemory( );
+    }
+
+    public void run( ) {
+	if ( sleeper ) {
+	    for ( int left = sleep; left > 0; left -= SLEEP_TICK )
+		SysLib.sleep( Math.min( left, SLEEP_TICK ) );
+	    SysLib.exit( );
+	    return;
+	}
+
+	String args[] = { "SpawnBench", "sleeper", "" + sleep };
+	long heap = usedHeap( );
+	long start = System.nanoTime( );
+	int spawned = 0;
+	while ( spawned < count && SysLib.exec( args ) >= 0 )
+	    spawned++;
+	long spawnTime = System.nanoTime( ) - start;
+	long perThread = ( spawned > 0 ) ? ( usedHeap( ) - heap ) / spawned : 0;
+
+	SysLib.cout( spawned + " threads spawned in " + spawnTime / 1000000 +
+		     " ms, " + ( long )( spawned * 1e9 / Math.max( spawnTime, 1 ) ) +
+		     " threads/s\n" );
+	SysLib.cout( "heap per thread: " + perThread + " bytes\n" );
+	if ( spawned < count )
+	    SysLib.cout( "exec failed after " + spawned + " threads\n" );
+	for ( int i = 0; i < spawned; i++ )
+	    SysLib.join( );
+	SysLib.cout( "all exited " + ( System.nanoTime( ) - start ) / 1000000 +
+		     " ms after the first exec\n" );
+	SysLib.exit( );
+    }
+}
@@ -0,0 +1,35 @@
+//*****************************************************************************
+//**  File: Stats.java
+//**
+//**  Description: Prints a snapshot of the kernel's counters obtained with
+//**    SysLib.stats(). With arguments it keeps polling:
+//**      -->l Stats             print one snapshot
+//**      -->l Stats 500 10      print 10 snapshots, 500 ms apart
+//*****************************************************************************
+
+public class Stats extends Thread {
+    private int interval = 0;
+    private int count = 1;
+
+    public Stats( ) {
+    }
+
+    public Stats( String args[] ) {
+	interval = Integer.parseInt( args[0] );
+	count = ( args.length > 1 ) ? Integer.parseInt( args[1] ) : 1;
+    }
+
+    public void run( ) {
+	for ( int i = 0; i < count; i++ ) {
+	    if ( i > 0 )
+		SysLib.sleep( interval );
+	    KernelStats stats = new KernelStats( );
+	    if ( SysLib.stats( stats ) == Kernel.ERROR ) {
+		SysLib.cerr( "Stats: cannot read kernel statistics\n" );
+		break;
+	    }
+	    SysLib.cout( stats.toString( ) );
+	}
+	SysLib.exit( );
+    }
+}
@@ -0,0 +1,99 @@
+import java.util.*;
+
+// Stride scheduling, the deterministic counterpart of lottery scheduling.
+// Every TCB has a pass, advanced by STRIDE1 / tickets for each ms it runs,
+// and the ready TCB with the lowest pass runs next, so CPU time follows
+// the tickets exactly rather than on average. A TCB that comes to this
+// CPU has its pass raised to the CPU's, the pass of the TCB dispatched
+// last, so that time spent blocked or elsewhere is not made up for.
+public class StridePolicy implements SchedulingPolicy {
+    public static final long STRIDE1 = 1 << 20;
+
+    // Orders TCBs by pass, then tid; a TCB's pass may only change while
+    // it is not in a set so ordered
+    static final Comparator<TCB> BY_PASS = new Comparator<TCB>( ) {
+	public int compare( TCB a, TCB b ) {
+	    if ( a.getPass( ) != b.getPass( ) )
+		return ( a.getPass( ) < b.getPass( ) ) ? -1 : 1;
+	    return a.getTid( ) - b.getTid( );
+	}
+    };
+
+    private TreeSet<TCB> ready = new TreeSet<TCB>( BY_PASS );
+    private long pass = 0;          // the pass of the TCB dispatched last
+
+    public String getName( ) {
+	return "stride";
+    }
+
+    public void onAdd( TCB tcb ) {
+	if ( tcb.getPass( ) < pass )
+	    tcb.setPass( pass );
+	ready.add( tcb );
+    }
+
+    public void onWake( TCB tcb ) {
+	onAdd( tcb );
+    }
+
+    public boolean onBlock( TCB tcb ) {
+	return ready.remove( tcb );
+    }
+
+    public void onExit( TCB tcb ) {
+	ready.remove( tcb );
+    }
+
+    public TCB pickNext( ) {
+	if ( ready.isEmpty( ) )
+	    return null;
+	TCB tcb = ready.first( );
+	pass = tcb.getPass( );
+	return tcb;
+    }
+
+    public int getQuantum( TCB tcb, int timeSlice ) {
+	return timeSlice;
+    }
+
+    // Charge the TCB for the time it ran, at least a ms
+    public void onQuantumEnd( TCB tcb, int used, boolean expired ) {
+	boolean held = ready.remove( tcb );
+	tcb.setPass( tcb.getPass( )
+		     + STRIDE1 / tcb.getTickets( ) * Math.max( used, 1 ) );
+	if ( held )
+	    ready.add( tcb );
+    }
+
+    // Lent tickets make the TCB's stride shorter from its next quantum on
+    public boolean lend( TCB holder, TCB waiter ) {
+	return holder.lendCpuPriority( waiter );
+    }
+
+    public void unlend( TCB holder ) {
+	holder.returnCpuPriority( );
+    }
+
+    public boolean preempts( TCB tcb, TCB running ) {
+	return false;
+    }
+
+    // The TCB with the highest pass, which would have been run last
+    public TCB takeReady( TCB running ) {
+	for ( Iterator<TCB> i = ready.descendingIterator( ); i.hasNext( ); ) {
+	    TCB tcb = i.next( );
+	    if ( tcb != running ) {
+		i.remove( );
+		return tcb;
+	    }
+	}
+	return null;
+    }
+
+    public void boost( ) {
+    }
+
+    public int size( ) {
+	return ready.size( );
+    }
+}
@@ -18,7 +18,41 @@ public class Superblock {
      * @param diskSize size of disk that we want to initialize
      */
     public Superblock(int diskSize) {
-        this.init(diskSize);
+        this.init(diskSize, DEFAULT_TOTAL_INODE_BLOCKS);
+    }
+
+    /**
+     * Initializes a Superblock object with the provided disk size. If the disk has to be
+     * formatted, it is formatted with the given number of inodes.
+     *
+     * @param diskSize size of disk that we want to initialize
+     * @param totalINodes number of inodes used when formatting a fresh disk
+     */
+    public Superblock(int diskSize, int totalINodes) {
+        this.init(diskSize, totalINodes);
+    }
+
+    /**
+     * Restores a Superblock object from a checkpoint without reading the disk.
+     *
+     * @param c checkpoint holding the superblock's counters
+     */
+    public Superblock(Checkpoint c) {
+        this.totalBlocks = c.totalBlocks;
+        this.totalINodes = c.totalINodes;
+        this.freeList = c.freeList;
+        this.freeListTail = c.freeList;
+    }
+
+    /**
+     * Records the superblock's counters in a checkpoint.
+     *
+     * @param c checkpoint to fill in
+     */
+    public synchronized void checkpoint(Checkpoint c) {
+        c.totalBlocks = this.totalBlocks;
+        c.totalINodes = this.totalINodes;
+        c.freeList = this.freeList;
     }
 
     /**
@@ -26,8 +60,9 @@ public class Superblock {
      * disk is not valid then a default configuration will be used.
      *
      * @param diskSize size of disk that we want to initialize
+     * @param totalINodes number of inodes used when formatting a fresh disk
      */
-    private void init(int diskSize) {
+    private void init(int diskSize, int totalINodes) {
         this.readSuperblock();
 
         // if the configuration that was read from disk is not valid then go
@@ -35,7 +70,7 @@ public class Superblock {
         if (configNotValid(diskSize)) {
             this.totalBlocks = diskSize;
             this.freeListTail = diskSize - 1;
-            this.format(DEFAULT_TOTAL_INODE_BLOCKS);
+            this.format(totalINodes);
         }
     }
 
@@ -91,6 +126,10 @@ public class Superblock {
         this.writeSuperblock();
     }
 
+    public int getTotalINodes() {
+        return this.totalINodes;
+    }
+
     private void writeSuperblock() {
         byte blockInfo[] = new byte[Disk.blockSize];
 
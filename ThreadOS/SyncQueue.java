@@ -0,0 +1,89 @@
+import java.util.*;
+
+// A monitor-based queue of threads waiting on integer conditions.
+// Used by the Kernel for threads waiting on their children (condition =
+// the parent's tid) and for threads waiting on the disk.
+//
+// Condition nodes are allocated only when a thread waits on a condition or
+// a wakeup is posted to it, and are dropped again once they hold neither,
+// so an idle queue costs nothing however many conditions it may serve.
+// Enqueueing and waking are O(1).
+public class SyncQueue {
+    private HashMap<Integer, QueueNode> queue; // condition -> waiters
+    private final int COND_MAX;                // conditions are 0..COND_MAX-1
+    private final int NO_PID = -1;
+
+    public SyncQueue( ) {
+	this( 10 );
+    }
+
+    public SyncQueue( int condMax ) {
+	COND_MAX = condMax;
+	queue = new HashMap<Integer, QueueNode>( );
+    }
+
+    // Get the node of a condition, allocating it on first use
+    private synchronized QueueNode acquire( int condition ) {
+	QueueNode node = queue.get( condition );
+	if ( node == null ) {
+	    node = new QueueNode( );
+	    queue.put( condition, node );
+	}
+	node.users++;
+	return node;
+    }
+
+    // Drop a node once nobody waits on it and no wakeup is pending
+    private synchronized void release( int condition, QueueNode node ) {
+	if ( --node.users == 0 && node.isEmpty( ) )
+	    queue.remove( condition );
+    }
+
+    // Sleep until a wakeup is posted to the condition and return the
+    // value (for joins, the tid of the exiting child) it carried
+    int enqueueAndSleep( int condition ) {
+	return enqueueAndSleep( condition, null );
+    }
+
+    // Sleep until a wakeup carrying one of the given values is posted to
+    // the condition, and return that value. Other wakeups stay queued for
+    // later callers. A null or empty set accepts any value.
+    int enqueueAndSleep( int condition, int values[] ) {
+	if ( condition < 0 || condition >= COND_MAX )
+	    return NO_PID;
+	QueueNode node = acquire( condition );
+	try {
+	    return node.sleep( values );
+	} finally {
+	    release( condition, node );
+	}
+    }
+
+    // Post a wakeup carrying tid to the condition. If no thread sleeps on
+    // it yet, the wakeup is kept until one does.
+    void dequeueAndWakeup( int condition, int tid ) {
+	if ( condition < 0 || condition >= COND_MAX )
+	    return;
+	QueueNode node = acquire( condition );
+	node.wakeup( tid );
+	release( condition, node );
+    }
+
+    void dequeueAndWakeup( int condition ) {
+	dequeueAndWakeup( condition, 0 );
+    }
+
+    // Whether a wakeup carrying tid is waiting to be taken
+    boolean isPending( int condition, int tid ) {
+	QueueNode node;
+	synchronized ( this ) {
+	    node = queue.get( condition );
+	}
+	return node != null && node.contains( tid );
+    }
+
+    // The number of conditions currently holding waiters or wakeups
+    synchronized int size( ) {
+	return queue.size( );
+    }
+}
@@ -107,16 +107,106 @@ public class SysLib {
 				 Kernel.EXEC, 0, args );
     }
 
+    // exec with a share of the CPU under -policy lottery or stride,
+    // relative to TCB.DEFAULT_TICKETS
+    public static int exec( String args[], int tickets ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.EXEC, tickets, args );
+    }
+
     public static int join( ) {
         return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
 				 Kernel.WAIT, 0, null );
     }
 
+    // wait for the given child to exit; returns its tid
+    public static int waitpid( int tid ) {
+	return waitpid( new int[] { tid } );
+    }
+
+    // wait for any of the given children to exit; returns its tid
+    public static int waitpid( int tids[] ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.WAITPID, 0, tids );
+    }
+
+    // set the caller's I/O class (DiskQueue.CLASS_*) and level (0-7)
+    public static int ionice( int ioClass, int level ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.IONICE, 0, new int[] { ioClass, level } );
+    }
+
+    // limit the disk operations and bytes per second of the caller
+    // (Kernel.IOLIMIT_THREAD) or its thread group (Kernel.IOLIMIT_GROUP);
+    // 0 removes a limit
+    public static int iolimit( int scope, int iops, int bytesPerSecond ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE, Kernel.IOLIMIT,
+				 0, new int[] { scope, iops, bytesPerSecond } );
+    }
+
+    // fill stats with a snapshot of the kernel's counters
+    public static int stats( KernelStats stats ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.STATS, 0, stats );
+    }
+
+    // run as a real-time thread: a job every period ms, taking up to
+    // budget ms of CPU and due deadline ms after its release; fails if
+    // the CPU is too busy with other real-time threads. All 0 goes back
+    // to being an ordinary thread.
+    public static int realtime( int period, int budget, int deadline ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.REALTIME, 0,
+				 new int[] { period, budget, deadline } );
+    }
+
+    // a real-time thread's job is done: sleep until the next is released
+    public static int nextPeriod( ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.NEXTPERIOD, 0, null );
+    }
+
+    // fill m with where the calling thread's time went
+    public static int metrics( ThreadMetrics m ) {
+        return metrics( -1, m );
+    }
+
+    // ... or that of another live thread
+    public static int metrics( int tid, ThreadMetrics m ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.METRICS, tid, m );
+    }
+
+    // write the profiler's collapsed stacks to fileName and start over;
+    // returns the number of distinct stacks or -1 if profiling is off
+    public static int profile( String fileName ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.PROFILE, 0, fileName );
+    }
+
+    // give up the CPU if the quantum is over; a thread computing for long
+    // without other system calls should call this now and then
+    public static int yield( ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.YIELD, 0, null );
+    }
+
+    // snapshot the kernel into fileName, to be booted with -restore
+    public static int checkpoint( String fileName ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.CHECKPOINT, 0, fileName );
+    }
+
     public static int boot( ) {
 	return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
 				 Kernel.BOOT, 0, null );
     }
 
+    public static int boot( BootConfig config ) {
+	return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.BOOT, 0, config );
+    }
+
     public static int exit( ) {
 	return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
 				 Kernel.EXIT, 0, null );
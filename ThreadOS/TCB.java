@@ -1,22 +1,76 @@
 public class TCB {
+    public static final int DEFAULT_TICKETS = 100;
+
+    // Accounting states, see ThreadMetrics
+    private static final int READY = 0;
+    private static final int RUNNING = 1;
+    private static final int BLOCKED = 2;
+    private static final int DONE = 3;
+
     private Thread thread = null;
     private int tid = 0;
     private int pid = 0;
+    private int gid = 0;
+    private String program = "?";  // class name given to exec
+    private int level = 0;         // scheduler feedback level, 0 highest
+    private Cpu cpu = null;        // the CPU it is queued on or last ran on
+    private RunQueue runQueue = null; // the run queue holding it, if any
+    private long ticket = 0;       // ... and its slot there
+    private int tickets = DEFAULT_TICKETS; // share of the CPU, see LotteryPolicy
+    private long pass = 0;         // virtual time, see StridePolicy
+    private int groupWeight = DEFAULT_TICKETS; // share of its group, see FairSharePolicy
+    private int lentRunLevel = Integer.MAX_VALUE; // CPU priority lent by a
+    private int lentTickets = 0;   // ... waiter for a file it holds, if any
+    private int lentWeight = 0;
+    private Reservation reservation = null; // real-time CPU reservation
+    private long pastJobs = 0;     // ... jobs and misses of earlier ones
+    private long pastMisses = 0;
     private boolean terminated = false;
+    private boolean blocked = false;
+    private boolean permit = false;  // may run user code
+    private boolean parked = false;  // waiting at a safepoint for a permit
+    private int inKernel = 0;        // depth of nested system calls
+    private int ioClass = DiskQueue.CLASS_BEST_EFFORT; // disk priority
+    private int ioLevel = DiskQueue.DEFAULT_LEVEL;
+    private int lentClass = 0;     // I/O priority lent by a waiter, 0 if none
+    private int lentLevel = 0;
     private int sleepTime = 0;
-    public FileTableEntry[] ftEnt = null; // added for the file system
+    private IoThrottle iopsLimit = null;  // disk operations per second
+    private IoThrottle bpsLimit = null;   // disk bytes per second
+    private IoThrottle groupIoLimits[] = null; // ... of the group, shared
+    private long throttledTime = 0;       // ns spent waiting on the limits
+    private FileTableEntry[] ftEnt = null; // added for the file system
+    private boolean ftShared = false; // ... and is still the parent's
+
+    // scheduling metrics, in ns of System.nanoTime( )
+    private int state = READY;
+    private long stateSince;       // when the thread entered its state
+    private long submitTime;       // exec
+    private long firstDispatch = -1;
+    private long completionTime = -1;
+    private long runTime = 0;
+    private long readyTime = 0;
+    private long blockedTime = 0;
+    private long dispatches = 0;
+    private int quantum = 0;       // ms of the last quantum given
+    private double usage = 1.0;    // share of its quanta used, on average
 
     public TCB( Thread newThread, int myTid, int parentTid ) {
+	this( newThread, myTid, parentTid, myTid );
+    }
+
+    // A thread group is a program loaded from the top-level thread with
+    // everything it spawns; its ID is that program's tid
+    public TCB( Thread newThread, int myTid, int parentTid, int groupId ) {
 	thread = newThread;
 	tid = myTid;
 	pid = parentTid;
+	gid = groupId;
 	terminated = false;
 
-	ftEnt = new FileTableEntry[32];    // added for the file system
+	submitTime = stateSince = System.nanoTime( );
 
-	System.err.println( "threadOS: a new thread (thread=" + thread + 
-			    " tid=" + tid + 
-			    " pid=" + pid + ")");
+	ThreadLog.spawned( thread, tid, pid );
     }
 
     public synchronized Thread getThread( ) {
@@ -31,8 +85,145 @@ public class TCB {
 	return pid;
     }
 
+    public synchronized int getGid( ) {
+	return gid;
+    }
+
+    public synchronized int getLevel( ) {
+	return level;
+    }
+
+    public synchronized void setLevel( int newLevel ) {
+	level = newLevel;
+    }
+
+    public synchronized Cpu getCpu( ) {
+	return cpu;
+    }
+
+    public synchronized void setCpu( Cpu newCpu ) {
+	cpu = newCpu;
+    }
+
+    // The run queue fields are guarded by the monitor of the TCB's CPU,
+    // not the TCB's own, and only RunQueue sets them
+    public RunQueue getRunQueue( ) {
+	return runQueue;
+    }
+
+    public long getTicket( ) {
+	return ticket;
+    }
+
+    public void setRunQueue( RunQueue queue, long slot ) {
+	runQueue = queue;
+	ticket = slot;
+    }
+
+    // The tickets a policy shares the CPU by: its own, or more if lent
+    public synchronized int getTickets( ) {
+	return Math.max( tickets, lentTickets );
+    }
+
+    // The tickets given at exec, which children inherit
+    public synchronized int getBaseTickets( ) {
+	return tickets;
+    }
+
+    public synchronized void setTickets( int newTickets ) {
+	if ( newTickets > 0 )
+	    tickets = newTickets;
+    }
+
+    public synchronized int getGroupWeight( ) {
+	return Math.max( groupWeight, lentWeight );
+    }
+
+    public synchronized int getBaseGroupWeight( ) {
+	return groupWeight;
+    }
+
+    // The lowest feedback level the TCB may drop to while a waiter's CPU
+    // priority is lent to it
+    public synchronized int getLentRunLevel( ) {
+	return lentRunLevel;
+    }
+
+    // Run at least at a waiter's feedback level, tickets and group weight
+    // until returnCpuPriority( ); true if any of them went up. Only the
+    // TCB's policy calls this, under its CPU's monitor, so that it can
+    // re-rank the TCB (see SchedulingPolicy.lend( )).
+    public boolean lendCpuPriority( TCB waiter ) {
+	return lendCpuPriority( waiter.getLevel( ), waiter.getTickets( ),
+				waiter.getGroupWeight( ) );
+    }
+
+    private synchronized boolean lendCpuPriority( int waiterLevel,
+						  int waiterTickets,
+						  int waiterWeight ) {
+	boolean raised = false;
+	if ( waiterLevel < Math.min( level, lentRunLevel ) ) {
+	    lentRunLevel = waiterLevel;
+	    raised = true;
+	}
+	if ( waiterTickets > getTickets( ) ) {
+	    lentTickets = waiterTickets;
+	    raised = true;
+	}
+	if ( waiterWeight > getGroupWeight( ) ) {
+	    lentWeight = waiterWeight;
+	    raised = true;
+	}
+	return raised;
+    }
+
+    // Go back to this thread's own CPU priority
+    public synchronized void returnCpuPriority( ) {
+	lentRunLevel = Integer.MAX_VALUE;
+	lentTickets = 0;
+	lentWeight = 0;
+    }
+
+    public synchronized void setGroupWeight( int newWeight ) {
+	if ( newWeight > 0 )
+	    groupWeight = newWeight;
+    }
+
+    public synchronized long getPass( ) {
+	return pass;
+    }
+
+    public synchronized void setPass( long newPass ) {
+	pass = newPass;
+    }
+
+    // The reservation is set and changed by the RealtimeClass of the TCB's
+    // CPU, under the CPU's monitor
+    public synchronized Reservation getReservation( ) {
+	return reservation;
+    }
+
+    public synchronized void setReservation( Reservation r ) {
+	if ( reservation != null ) {
+	    pastJobs += reservation.getJobs( );
+	    pastMisses += reservation.getMisses( );
+	}
+	reservation = r;
+    }
+
+    public synchronized void setProgram( String name ) {
+	program = name;
+    }
+
+    public synchronized String getProgram( ) {
+	return program;
+    }
+
     public synchronized boolean setTerminated( ) {
+	account( DONE );
+	completionTime = stateSince;
 	terminated = true;
+	notifyAll( );
 	return terminated;
     }
 
@@ -40,10 +231,257 @@ public class TCB {
 	return terminated;
     }
 
+    // Set the I/O class and level honored by the Kernel's disk queue
+    public synchronized boolean setIoPriority( int newClass, int newLevel ) {
+	if ( !DiskQueue.isValid( newClass, newLevel ) )
+	    return false;
+	ioClass = newClass;
+	ioLevel = newLevel;
+	return true;
+    }
+
+    // The I/O class and level the disk queue serves this thread at: its
+    // own, or that lent by a thread waiting for a file it holds
+    public synchronized int getIoClass( ) {
+	return ( lentClass != 0 ) ? lentClass : ioClass;
+    }
+
+    public synchronized int getIoLevel( ) {
+	return ( lentClass != 0 ) ? lentLevel : ioLevel;
+    }
+
+    // The I/O class and level set with ionice, which children inherit
+    public synchronized int getBaseIoClass( ) {
+	return ioClass;
+    }
+
+    public synchronized int getBaseIoLevel( ) {
+	return ioLevel;
+    }
+
+    // Run at a waiter's I/O priority if it is higher than the current one;
+    // returns whether this thread's priority was raised
+    public synchronized boolean lendIoPriority( int waiterClass, int waiterLevel ) {
+	if ( DiskQueue.rank( waiterClass, waiterLevel ) >=
+	     DiskQueue.rank( getIoClass( ), getIoLevel( ) ) )
+	    return false;
+	lentClass = waiterClass;
+	lentLevel = waiterLevel;
+	return true;
+    }
+
+    // Go back to this thread's own I/O priority
+    public synchronized void returnIoPriority( ) {
+	lentClass = 0;
+	lentLevel = 0;
+    }
+
+    // Limit this thread's disk bandwidth; a rate of 0 means no limit
+    public synchronized void setIoLimits( int iops, int bytesPerSecond ) {
+	iopsLimit = ( iops > 0 ) ? new IoThrottle( iops ) : null;
+	bpsLimit = ( bytesPerSecond > 0 ) ? new IoThrottle( bytesPerSecond ) : null;
+    }
+
+    public synchronized IoThrottle getIopsLimit( ) {
+	return iopsLimit;
+    }
+
+    public synchronized IoThrottle getBpsLimit( ) {
+	return bpsLimit;
+    }
+
+    // The disk bandwidth limits of this thread's group, { iops, bytes per
+    // second }: one array that all its TCBs share, so that the limits go
+    // away with the group rather than stay with its gid, which is reused
+    public synchronized void setGroupIoLimits( IoThrottle limits[] ) {
+	groupIoLimits = limits;
+    }
+
+    public synchronized IoThrottle[] getGroupIoLimits( ) {
+	return groupIoLimits;
+    }
+
+    public synchronized void addThrottledTime( long nanoseconds ) {
+	throttledTime += nanoseconds;
+    }
+
+    public synchronized long getThrottledTime( ) {
+	return throttledTime;
+    }
+
+    // Mark this thread as waiting for an event, off the run queue
+    public synchronized void setBlocked( ) {
+	account( BLOCKED );
+	blocked = true;
+	notifyAll( );
+    }
+
+    // The event arrived: let the thread continue
+    public synchronized void setReady( ) {
+	if ( state == BLOCKED )
+	    account( READY );
+	blocked = false;
+	notifyAll( );
+    }
+
+    public synchronized boolean getBlocked( ) {
+	return blocked;
+    }
+
+    // Called by the thread itself to park until setReady( )
+    public synchronized void waitReady( ) {
+	while ( blocked ) {
+	    try {
+		wait( );
+	    } catch ( InterruptedException e ) { }
+	}
+    }
+
+    // A thread runs user code only while it holds a run permit, which its
+    // CPU grants when dispatching it and revokes at the end of its quantum.
+    // The thread gives the permit up at its next safepoint.
+    public synchronized void grant( ) {
+	if ( state == READY ) {
+	    account( RUNNING );
+	    if ( firstDispatch < 0 )
+		firstDispatch = stateSince;
+	    dispatches++;
+	}
+	permit = true;
+	notifyAll( );
+    }
+
+    // Revoke the permit and wait up to timeout ms for the thread to let go
+    // of the CPU by stopping at a safepoint, blocking or exiting. Returns
+    // false if it is still running user code when the time is up.
+    public synchronized boolean revoke( long timeout ) {
+	if ( state == RUNNING )
+	    account( READY );
+	permit = false;
+	long deadline = System.currentTimeMillis( ) + timeout;
+	long left = timeout;
+	while ( !parked && !blocked && !terminated && left > 0 ) {
+	    try {
+		wait( left );
+	    } catch ( InterruptedException e ) { }
+	    left = deadline - System.currentTimeMillis( );
+	}
+	return parked || blocked || terminated;
+    }
+
+    // A safepoint, called by the thread itself: park until it holds a
+    // permit again
+    public synchronized void safepoint( ) {
+	if ( permit || terminated )
+	    return;
+	parked = true;
+	notifyAll( );
+	while ( !permit && !terminated ) {
+	    try {
+		wait( );
+	    } catch ( InterruptedException e ) { }
+	}
+	parked = false;
+    }
+
+    // Charge the time since the last change of state to that state and
+    // enter a new one
+    private void account( int newState ) {
+	long now = System.nanoTime( );
+	if ( state == RUNNING )
+	    runTime += now - stateSince;
+	else if ( state == READY )
+	    readyTime += now - stateSince;
+	else if ( state == BLOCKED )
+	    blockedTime += now - stateSince;
+	if ( state != DONE ) {
+	    state = newState;
+	    stateSince = now;
+	}
+    }
+
+    public synchronized void setQuantum( int ms ) {
+	quantum = ms;
+    }
+
+    // Fold the share of a quantum used into a running average, half of
+    // which is the latest quantum's
+    public synchronized void recordUsage( int used, int given ) {
+	if ( given > 0 )
+	    usage = ( usage + Math.min( ( double )used / given, 1.0 ) ) / 2;
+    }
+
+    public synchronized double getUsage( ) {
+	return usage;
+    }
+
+    // Fill in where this thread's time has gone so far
+    public synchronized void getMetrics( ThreadMetrics m ) {
+	long now = ( state == DONE ) ? completionTime : System.nanoTime( );
+	long current = now - stateSince;
+	m.tid = tid;
+	m.program = program;
+	m.response = ( firstDispatch >= 0 ) ? firstDispatch - submitTime : -1;
+	m.running = runTime + ( state == RUNNING ? current : 0 );
+	m.ready = readyTime + ( state == READY ? current : 0 );
+	m.blocked = blockedTime + ( state == BLOCKED ? current : 0 );
+	m.turnaround = now - submitTime;
+	m.dispatches = dispatches;
+	m.quantum = quantum;
+	m.jobs = pastJobs + ( reservation != null ? reservation.getJobs( ) : 0 );
+	m.deadlineMisses = pastMisses +
+	    ( reservation != null ? reservation.getMisses( ) : 0 );
+	m.completed = ( state == DONE );
+    }
+
+    // Track nested system calls, such as the disk reads of a file system
+    // call; only the outermost entry and exit are safepoints
+    public synchronized boolean enterKernel( ) {
+	return inKernel++ == 0;
+    }
+
+    public synchronized boolean exitKernel( ) {
+	return --inKernel == 0;
+    }
+
+    // The file descriptor table is allocated on the first open, and one
+    // inherited from the parent is shared with it until either of them
+    // changes theirs; a shared table is never written to
+    private FileTableEntry[] writableFds( ) {
+	if ( ftEnt == null )
+	    ftEnt = new FileTableEntry[32];
+	else if ( ftShared )
+	    ftEnt = ftEnt.clone( );
+	ftShared = false;
+	return ftEnt;
+    }
+
+    private synchronized FileTableEntry[] shareFds( ) {
+	if ( ftEnt != null )
+	    ftShared = true;
+	return ftEnt;
+    }
+
+    // Inherit the parent's open files, each of them now used by one more
+    // thread
+    public void inheritFds( TCB parent ) {
+	FileTableEntry table[] = parent.shareFds( );
+	if ( table == null )
+	    return;
+	synchronized ( this ) {
+	    ftEnt = table;
+	    ftShared = true;
+	}
+	for ( int i = 0; i < table.length; i++ )
+	    if ( table[i] != null )
+		table[i].count++;
+    }
+
     // added for the file system
     public synchronized int getFd( FileTableEntry entry ) {
 	if ( entry == null )
 	    return -1;
+	FileTableEntry ftEnt[] = writableFds( );
 	for ( int i = 3; i < 32; i++ ) {
 	    if ( ftEnt[i] == null ) {
 		ftEnt[i] = entry;
@@ -55,7 +493,8 @@ public class TCB {
 
     // added for the file system
     public synchronized FileTableEntry returnFd( int fd ) {
-	if ( fd >= 3 && fd < 32 ) {
+	if ( fd >= 3 && fd < 32 && ftEnt != null && ftEnt[fd] != null ) {
+	    FileTableEntry ftEnt[] = writableFds( );
 	    FileTableEntry oldEnt = ftEnt[fd];
 	    ftEnt[fd] = null;
 	    return oldEnt;
@@ -66,7 +505,7 @@ public class TCB {
 
     // added for the file systme
     public synchronized FileTableEntry getFtEnt( int fd ) {
-	if ( fd >= 3 && fd < 32 )
+	if ( fd >= 3 && fd < 32 && ftEnt != null )
 	    return ftEnt[fd];
 	else
 	    return null;
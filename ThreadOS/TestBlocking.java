@@ -0,0 +1,83 @@
+//*****************************************************************************
+//**  File: TestBlocking.java
+//**
+//**  Description: Checks that a thread waiting inside the kernel gives up
+//**    its CPU. One thread computes, calling SysLib.yield( ) often, while
+//**    others wait for a SYNC in progress or for exec admission. A waiter
+//**    left holding its CPU would keep it for a whole quantum and then be
+//**    counted as an overrun, so the overruns must stay 0.
+//**      -->l TestBlocking sync      4 threads syncing over and over
+//**      -->l TestBlocking admit     an exec waiting for admission; boot
+//**                                  with -runnable 3
+//*****************************************************************************
+
+public class TestBlocking extends Thread {
+    private static final int COMPUTE = 3000;  // ms the computing thread runs
+    private static final int SYNCS = 10;      // syncs per syncing thread
+    private String mode = "sync";
+
+    public TestBlocking( ) {
+    }
+
+    public TestBlocking( String args[] ) {
+	if ( args.length > 0 )
+	    mode = args[0];
+    }
+
+    private static long overruns( ) {
+	KernelStats stats = new KernelStats( );
+	SysLib.stats( stats );
+	return stats.overruns;
+    }
+
+    private static void compute( int ms ) {
+	long end = System.currentTimeMillis( ) + ms;
+	double x = 0;
+	while ( System.currentTimeMillis( ) < end ) {
+	    for ( int i = 0; i < 10000; i++ )
+		x += Math.sqrt( i );
+	    SysLib.yield( );
+	}
+    }
+
+    public void run( ) {
+	if ( mode.equals( "compute" ) ) {
+	    compute( COMPUTE );
+	    SysLib.exit( );
+	    return;
+	}
+	if ( mode.equals( "syncer" ) ) {
+	    for ( int i = 0; i < SYNCS; i++ )
+		SysLib.sync( );
+	    SysLib.exit( );
+	    return;
+	}
+	if ( mode.equals( "idle" ) ) {
+	    SysLib.exit( );
+	    return;
+	}
+
+	long before = overruns( );
+	int children = 0;
+	if ( SysLib.exec( new String[] { "TestBlocking", "compute" } ) >= 0 )
+	    children++;
+	if ( mode.equals( "admit" ) ) {
+	    // waits for the computing thread to exit with -runnable 3
+	    long start = System.currentTimeMillis( );
+	    if ( SysLib.exec( new String[] { "TestBlocking", "idle" } ) >= 0 )
+		children++;
+	    SysLib.cout( "exec admitted after " +
+			 ( System.currentTimeMillis( ) - start ) + " ms\n" );
+	} else {
+	    for ( int i = 0; i < 4; i++ )
+		if ( SysLib.exec( new String[] { "TestBlocking", "syncer" } ) >= 0 )
+		    children++;
+	}
+	for ( int i = 0; i < children; i++ )
+	    SysLib.join( );
+	long overruns = overruns( ) - before;
+	SysLib.cout( "TestBlocking " + mode + ": " + overruns + " overruns" +
+		     ( overruns == 0 ? " (ok)\n" : " (FAILED)\n" ) );
+	SysLib.exit( );
+    }
+}
@@ -0,0 +1,84 @@
+//*****************************************************************************
+//**  File: TestFairShare.java
+//**
+//**  Description: Checks that the fair policy forgets the threads of a
+//**    group once they exit, reserved or not. Children reserve the CPU,
+//**    drop the reservation, reserve it again and exit, while another just
+//**    computes and exits; once they are all gone the thread groups and
+//**    their members must be what they were before. Boot with -policy fair.
+//**      -->l TestFairShare          3 reserving children and 1 computing
+//**      -->l TestFairShare 10       10 reserving children and 1 computing
+//*****************************************************************************
+
+public class TestFairShare extends Thread {
+    private static final int COMPUTE = 200;  // ms each child computes at once
+    private String mode = "";
+    private int children = 3;
+
+    public TestFairShare( ) {
+    }
+
+    public TestFairShare( String args[] ) {
+	if ( args.length > 0 && !Character.isDigit( args[0].charAt( 0 ) ) )
+	    mode = args[0];
+	else if ( args.length > 0 )
+	    children = Integer.parseInt( args[0] );
+    }
+
+    private static void compute( int ms ) {
+	long end = System.currentTimeMillis( ) + ms;
+	double x = 0;
+	while ( System.currentTimeMillis( ) < end ) {
+	    for ( int i = 0; i < 10000; i++ )
+		x += Math.sqrt( i );
+	    SysLib.yield( );
+	}
+    }
+
+    public void run( ) {
+	if ( mode.equals( "compute" ) ) {
+	    compute( COMPUTE );
+	    SysLib.exit( );
+	    return;
+	}
+	if ( mode.equals( "reserve" ) ) {
+	    // a member joins the real-time class, leaves it, and exits in it
+	    if ( SysLib.realtime( 100, 10, 100 ) < 0 )
+		SysLib.cerr( "TestFairShare: realtime failed\n" );
+	    compute( COMPUTE );
+	    SysLib.realtime( 0, 0, 0 );
+	    compute( COMPUTE );
+	    SysLib.realtime( 100, 10, 100 );
+	    compute( COMPUTE );
+	    SysLib.exit( );
+	    return;
+	}
+
+	KernelStats before = new KernelStats( );
+	SysLib.stats( before );
+	if ( !before.policy.equals( "fair" ) ) {
+	    SysLib.cout( "TestFairShare: boot with -policy fair\n" );
+	    SysLib.exit( );
+	    return;
+	}
+	int spawned = 0;
+	for ( int i = 0; i < children; i++ )
+	    if ( SysLib.exec( new String[] { "TestFairShare", "reserve" } ) >= 0 )
+		spawned++;
+	if ( SysLib.exec( new String[] { "TestFairShare", "compute" } ) >= 0 )
+	    spawned++;
+	for ( int i = 0; i < spawned; i++ )
+	    SysLib.join( );
+	SysLib.sleep( 100 ); // until the CPUs have reaped them
+
+	KernelStats after = new KernelStats( );
+	SysLib.stats( after );
+	boolean ok = after.threadGroups == before.threadGroups &&
+	    after.groupMembers == before.groupMembers;
+	SysLib.cout( "TestFairShare: " + after.threadGroups + " groups (" +
+		     before.threadGroups + " before), " + after.groupMembers +
+		     " members (" + before.groupMembers + " before)" +
+		     ( ok ? " (ok)\n" : " (FAILED)\n" ) );
+	SysLib.exit( );
+    }
+}
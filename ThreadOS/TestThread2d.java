@@ -5,11 +5,7 @@ class TestThread2d extends Thread {
   private int cpuBurst;
 
   private long submissionTime;
-  private long activationTime;
   private long completionTime;
-  private long lastExecutionTime;
-  private long totalExecutionTime;
-  private long totalWaitTime;
   
   private static final int TIMEQUANTUM = 100;
 
@@ -23,29 +19,19 @@ class TestThread2d extends Thread {
   }
 
   public void run( ) {
-    long totalExecutionTime = 0;
-    long totalWaitTime = 0;
-    activationTime = new Date().getTime();
-    lastExecutionTime = activationTime;
     for ( int burst = cpuBurst; burst > 0; burst -= TIMEQUANTUM ) {
-      long currentTime = new Date().getTime();
-      totalWaitTime += (currentTime - lastExecutionTime);
-      totalExecutionTime += TIMEQUANTUM;
-      lastExecutionTime = currentTime + TIMEQUANTUM;
-      SysLib.cout( 
-        String.format( 
-          "%05d: Thread[%s] is running (%5d, %5d)\n", 
-          currentTime % 100000, name, totalExecutionTime, totalWaitTime ) );
       SysLib.sleep( TIMEQUANTUM );
     }
+    // the kernel's accounting rather than our own clock readings
+    ThreadMetrics m = new ThreadMetrics();
+    SysLib.metrics( m );
     completionTime = new Date().getTime();
-    long responseTime = activationTime - submissionTime;
-    long turnaroundTime = completionTime - submissionTime;
     SysLib.cout( 
       String.format( 
-        "%05d: Thread[%s]: response: %5d; wait: %5d; execution: %5d; turnaround: %5d\n",
+        "%05d: Thread[%s]: response: %5d; wait: %5d; execution: %5d; blocked: %5d; turnaround: %5d\n",
         completionTime % 100000, name, 
-        responseTime, totalWaitTime, totalExecutionTime, turnaroundTime ) );
+        m.response / 1000000, m.ready / 1000000, m.running / 1000000,
+        m.blocked / 1000000, m.turnaround / 1000000 ) );
     SysLib.exit();
   }
 }
@@ -0,0 +1,100 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// The lines printed for every user thread: "threadOS: a new thread" when
+// its TCB is created, and its ThreadMetrics when it exits. They are
+// written to System.err by a daemon thread of its own, so that exec and
+// exit do not wait on the console; when more than CAPACITY lines are
+// waiting, the rest are dropped and counted instead. -threadlog off turns
+// the log off altogether, which is what to do with many thousands of
+// threads.
+public class ThreadLog extends Thread {
+    private static final int CAPACITY = 4096;
+
+    private static volatile boolean enabled = true;
+    private static volatile ThreadLog logger = null;
+
+    private ArrayBlockingQueue<Object> entries =
+	new ArrayBlockingQueue<Object>( CAPACITY );
+    private AtomicLong dropped = new AtomicLong( );
+
+    // A thread created, formatted only once it is written out
+    private static class Spawn {
+	Thread thread;
+	int tid;
+	int pid;
+
+	Spawn( Thread thread, int tid, int pid ) {
+	    this.thread = thread;
+	    this.tid = tid;
+	    this.pid = pid;
+	}
+
+	public String toString( ) {
+	    return "a new thread (thread=" + thread + " tid=" + tid +
+		" pid=" + pid + ")";
+	}
+    }
+
+    private ThreadLog( ) {
+	super( "ThreadLog" );
+	setDaemon( true );
+    }
+
+    public static void setEnabled( boolean on ) {
+	enabled = on;
+    }
+
+    public static boolean isEnabled( ) {
+	return enabled;
+    }
+
+    public static void spawned( Thread thread, int tid, int pid ) {
+	if ( enabled )
+	    add( new Spawn( thread, tid, pid ) );
+    }
+
+    public static void exited( TCB tcb ) {
+	if ( !enabled )
+	    return;
+	ThreadMetrics metrics = new ThreadMetrics( );
+	tcb.getMetrics( metrics );
+	add( metrics );
+    }
+
+    private static void add( Object entry ) {
+	ThreadLog log = logger;
+	if ( log == null )
+	    log = startLogger( );
+	if ( !log.entries.offer( entry ) )
+	    log.dropped.incrementAndGet( );
+    }
+
+    private static synchronized ThreadLog startLogger( ) {
+	if ( logger == null ) {
+	    ThreadLog log = new ThreadLog( );
+	    log.start( );
+	    logger = log;
+	}
+	return logger;
+    }
+
+    public void run( ) {
+	long reported = 0;
+	while ( true ) {
+	    Object entry;
+	    try {
+		entry = entries.take( );
+	    } catch ( InterruptedException e ) {
+		continue;
+	    }
+	    long lost = dropped.get( );
+	    if ( lost > reported ) {
+		System.err.println( "threadOS: " + ( lost - reported ) +
+				    " thread log lines dropped" );
+		reported = lost;
+	    }
+	    System.err.println( "threadOS: " + entry );
+	}
+    }
+}
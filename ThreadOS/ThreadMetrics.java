@@ -0,0 +1,37 @@
+// Where a thread's time went, as its TCB has accounted for it with the
+// nanosecond clock since the thread was exec'ed: running (holding a CPU),
+// ready (queued, waiting for a CPU) and blocked (waiting for I/O, a child,
+// a timer or the keyboard). Returned by SysLib.metrics( ) and logged when
+// the thread exits (see ThreadLog).
+public class ThreadMetrics {
+    public int tid;
+    public String program;
+    public long response;           // ns from exec to the first dispatch
+    public long running;            // ns holding a CPU
+    public long ready;              // ns queued for a CPU
+    public long blocked;            // ns off the run queue
+    public long turnaround;         // ns from exec to exit, or until now
+    public long dispatches;         // # quanta given
+    public int quantum;             // ms of the last one
+    public long jobs;               // real-time jobs released
+    public long deadlineMisses;     // ... and finished late or not at all
+    public boolean completed;       // the thread has exited
+
+    public ThreadMetrics( ) {
+    }
+
+    private static String ms( long ns ) {
+	return String.format( "%.3f", ns / 1000000.0 );
+    }
+
+    public String toString( ) {
+	return "tid=" + tid + " " + program + ": response " + ms( response ) +
+	    " ms, running " + ms( running ) + " ms, ready " + ms( ready ) +
+	    " ms, blocked " + ms( blocked ) + " ms, turnaround " +
+	    ms( turnaround ) + " ms, " + dispatches + " dispatches, last of " +
+	    quantum + " ms" +
+	    ( jobs > 0 ? ", " + deadlineMisses + " of " + jobs +
+	      " deadlines missed" : "" ) +
+	    ( completed ? "" : " so far" );
+    }
+}
@@ -0,0 +1,149 @@
+// The Scheduler's thread ID allocator: a bitmap with one bit per ID, set
+// while the ID is in use, and a second bitmap with one bit per 64-ID
+// word, set while that word is full. IDs are handed out in increasing
+// order from just past the last one, as before, wrapping around at the
+// end. A free ID is found from the word bitmaps with trailing-zero counts,
+// so allocating costs about the same however full the ID space is; with a
+// million IDs a full search reads 245 summary words.
+//
+// A returned ID can be held back for a while before it is handed out
+// again, so that a parent that joins or waits on a child by ID does not
+// mistake a new thread for it.
+public class TidMap {
+    private long used[];            // bit set: ID in use
+    private long full[];            // bit set: used[] word has no free ID
+    private int maxIds;
+    private int next = 0;           // where the next search starts
+    private int inUse = 0;          // # IDs allocated or held back
+
+    private int recycleDelay = 0;   // ms a returned ID is held back
+    private int held[];             // IDs held back, oldest first ...
+    private long heldUntil[];       // ... and when each may be reused
+    private int heldHead = 0;
+    private int heldCount = 0;
+
+    public TidMap( int maxIds ) {
+	this.maxIds = maxIds;
+	used = new long[ ( maxIds + 63 ) / 64 ];
+	full = new long[ ( used.length + 63 ) / 64 ];
+	// the IDs past maxIds in the last word are never handed out
+	for ( int id = maxIds; id < used.length * 64; id++ )
+	    used[id / 64] |= 1L << id;
+	for ( int w = 0; w < used.length; w++ )
+	    if ( used[w] == -1L )
+		full[w / 64] |= 1L << w;
+    }
+
+    public int getMaxIds( ) {
+	return maxIds;
+    }
+
+    public synchronized int getInUse( ) {
+	return inUse;
+    }
+
+    public synchronized void setRecycleDelay( int ms ) {
+	recycleDelay = ms;
+    }
+
+    // Take the lowest free ID at or after where the last search ended,
+    // wrapping around; -1 if every ID is in use
+    public synchronized int allocate( ) {
+	releaseHeld( false );
+	int id = search( next );
+	if ( id == -1 && heldCount > 0 ) {
+	    // out of IDs: reuse those held back rather than fail
+	    releaseHeld( true );
+	    id = search( next );
+	}
+	if ( id == -1 )
+	    return -1;
+	set( id );
+	inUse++;
+	next = ( id + 1 < maxIds ) ? id + 1 : 0;
+	return id;
+    }
+
+    // Give an ID back; false if it was not in use
+    public synchronized boolean free( int id ) {
+	if ( id < 0 || id >= maxIds || ( used[id / 64] & ( 1L << id ) ) == 0 )
+	    return false;
+	if ( recycleDelay == 0 ) {
+	    clear( id );
+	    inUse--;
+	    return true;
+	}
+	if ( held == null || heldCount == held.length )
+	    growHeld( );
+	int slot = ( heldHead + heldCount ) % held.length;
+	held[slot] = id;
+	heldUntil[slot] = System.currentTimeMillis( ) + recycleDelay;
+	heldCount++;
+	return true;
+    }
+
+    // The first free ID at or after from, wrapping around, or -1
+    private int search( int from ) {
+	int id = searchFrom( from / 64, ~( ( 1L << from ) - 1 ) );
+	if ( id == -1 && from > 0 )
+	    id = searchFrom( 0, -1L );
+	return id;
+    }
+
+    // The first free ID in word w among the bits of mask, or in the
+    // non-full words after w
+    private int searchFrom( int w, long mask ) {
+	long free = ~used[w] & mask;
+	if ( free != 0 )
+	    return w * 64 + Long.numberOfTrailingZeros( free );
+	for ( int s = ( w + 1 ) / 64; s < full.length; s++ ) {
+	    long open = ~full[s];
+	    if ( s == ( w + 1 ) / 64 )
+		open &= -1L << ( w + 1 );   // only the words after w
+	    if ( open != 0 ) {
+		int word = s * 64 + Long.numberOfTrailingZeros( open );
+		if ( word >= used.length )
+		    return -1;
+		return word * 64 + Long.numberOfTrailingZeros( ~used[word] );
+	    }
+	}
+	return -1;
+    }
+
+    private void set( int id ) {
+	int w = id / 64;
+	used[w] |= 1L << id;
+	if ( used[w] == -1L )
+	    full[w / 64] |= 1L << w;
+    }
+
+    private void clear( int id ) {
+	int w = id / 64;
+	used[w] &= ~( 1L << id );
+	full[w / 64] &= ~( 1L << w );
+    }
+
+    // Free the held-back IDs whose delay is over, or all of them
+    private void releaseHeld( boolean all ) {
+	long now = System.currentTimeMillis( );
+	while ( heldCount > 0 && ( all || heldUntil[heldHead] <= now ) ) {
+	    clear( held[heldHead] );
+	    inUse--;
+	    heldHead = ( heldHead + 1 ) % held.length;
+	    heldCount--;
+	}
+    }
+
+    private void growHeld( ) {
+	int size = ( held == null ) ? 64 : held.length * 2;
+	int newHeld[] = new int[size];
+	long newUntil[] = new long[size];
+	for ( int i = 0; i < heldCount; i++ ) {
+	    newHeld[i] = held[( heldHead + i ) % held.length];
+	    newUntil[i] = heldUntil[( heldHead + i ) % held.length];
+	}
+	held = newHeld;
+	heldUntil = newUntil;
+	heldHead = 0;
+    }
+}
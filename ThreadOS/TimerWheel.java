@@ -0,0 +1,149 @@
+import java.util.*;
+
+/**
+ * A hierarchical timer wheel that parks sleeping user threads off the
+ * Scheduler's run queue and hands them back when their sleep expires.
+ *
+ * Time is counted in ticks of tickMillis. The wheel has LEVELS levels of
+ * SLOTS slots each; level 0 holds timers expiring within the current
+ * SLOTS-tick window, level 1 those within the current SLOTS^2 window, and
+ * so on. When the low-order digits of the current tick roll over to zero,
+ * the matching slot of the next level is cascaded into the lower levels.
+ * Adding, expiring and cascading a timer are all O(1), so the cost of
+ * sleeping does not grow with the number of sleeping threads.
+ */
+public class TimerWheel extends Thread {
+
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;    /* 256 slots per level */
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;                /* 2^32 ticks in the wheel */
+
+    // A sleeping thread and the tick at which it should wake up
+    private static class Timer {
+        final TCB tcb;
+        final long expires;
+        Timer next;
+
+        Timer( TCB tcb, long expires ) {
+            this.tcb = tcb;
+            this.expires = expires;
+        }
+    }
+
+    private Scheduler scheduler;
+    private long tickNanos;
+    private long origin;                /* System.nanoTime( ) of tick 0 */
+    private long currentTick = 0;       /* last tick processed */
+    private Timer wheel[][] = new Timer[LEVELS][SLOTS];
+    private Timer overflow = null;      /* beyond the last level */
+    private int pending = 0;            /* # timers in the wheel */
+
+    public TimerWheel( Scheduler scheduler, int tickMillis ) {
+        this.scheduler = scheduler;
+        tickNanos = ( tickMillis > 0 ? tickMillis : 1 ) * 1000000L;
+        origin = System.nanoTime( );
+        setDaemon( true );
+    }
+
+    // The tick the wall clock is at now
+    private long now( ) {
+        return ( System.nanoTime( ) - origin ) / tickNanos;
+    }
+
+    // Park a thread for the given milliseconds; it is woken up through
+    // Scheduler.wakeThread( ) once at least that much time has passed
+    public synchronized void add( TCB tcb, int milliseconds ) {
+        if ( pending == 0 )
+            currentTick = now( ); // nothing to expire in between
+        long ticks = ( milliseconds * 1000000L + tickNanos - 1 ) / tickNanos;
+        insert( new Timer( tcb, now( ) + Math.max( ticks, 1 ) ) );
+        pending++;
+        notify( );
+    }
+
+    // Put a timer in the lowest level whose window contains its expiry
+    private void insert( Timer timer ) {
+        long expires = Math.max( timer.expires, currentTick + 1 );
+        for ( int level = 0; level < LEVELS; level++ ) {
+            int shift = SLOT_BITS * ( level + 1 );
+            if ( ( expires >>> shift ) == ( currentTick >>> shift ) ) {
+                int slot = ( int )( expires >>> ( SLOT_BITS * level ) ) & SLOT_MASK;
+                timer.next = wheel[level][slot];
+                wheel[level][slot] = timer;
+                return;
+            }
+        }
+        timer.next = overflow;
+        overflow = timer;
+    }
+
+    // Move every timer of a list down to the levels it now belongs to
+    private void cascade( Timer list ) {
+        while ( list != null ) {
+            Timer next = list.next;
+            insert( list );
+            list = next;
+        }
+    }
+
+    // Advance the wheel up to the current tick and collect what expired
+    private Timer advance( ) {
+        Timer expired = null;
+        long target = now( );
+        while ( currentTick < target ) {
+            currentTick++;
+            for ( int level = 1; level <= LEVELS; level++ ) {
+                int shift = SLOT_BITS * level;
+                if ( ( currentTick & ( ( 1L << shift ) - 1 ) ) != 0 )
+                    break;
+                Timer list;
+                if ( level == LEVELS ) {
+                    list = overflow;
+                    overflow = null;
+                } else {
+                    int slot = ( int )( currentTick >>> shift ) & SLOT_MASK;
+                    list = wheel[level][slot];
+                    wheel[level][slot] = null;
+                }
+                cascade( list );
+            }
+            int slot = ( int )currentTick & SLOT_MASK;
+            Timer list = wheel[0][slot];
+            wheel[0][slot] = null;
+            while ( list != null ) {
+                Timer next = list.next;
+                list.next = expired;
+                expired = list;
+                pending--;
+                list = next;
+            }
+        }
+        return expired;
+    }
+
+    public int getPending( ) {
+        return pending;
+    }
+
+    public void run( ) {
+        while ( true ) {
+            Timer expired;
+            synchronized ( this ) {
+                try {
+                    while ( pending == 0 )
+                        wait( ); // no sleeping threads, no ticking
+                    long next = origin + ( currentTick + 1 ) * tickNanos;
+                    long delay = next - System.nanoTime( );
+                    if ( delay > 0 )
+                        wait( delay / 1000000, ( int )( delay % 1000000 ) );
+                } catch ( InterruptedException e ) {
+                }
+                expired = advance( );
+            }
+            // hand threads back to the scheduler without holding the wheel
+            for ( ; expired != null; expired = expired.next )
+                scheduler.wakeThread( expired.tcb );
+        }
+    }
+}